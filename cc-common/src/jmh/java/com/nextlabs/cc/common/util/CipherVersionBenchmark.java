@@ -0,0 +1,62 @@
+package com.nextlabs.cc.common.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the encryption and decryption throughput of a configuration value with the legacy ReversibleEncryptor (v1)
+ * and AES-GCM (v2). The cache is disabled, so every value is decrypted.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcc.encryption.cache.size=0")
+@State(Scope.Benchmark)
+public class CipherVersionBenchmark {
+
+    private static final String VALUE = "jdbc-password-7f3c9a1e5b2d4068";
+
+    @Param({"V1", "V2"})
+    private EncryptionUtil.CipherVersion version;
+
+    private String encryptedValue;
+
+    @Setup
+    public void setup() throws IOException {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        Path keyFile = Files.createTempFile("cipher-version-benchmark", ".key");
+        keyFile.toFile().deleteOnExit();
+        Files.write(keyFile, Base64.getEncoder().encode(key));
+        System.setProperty(EncryptionUtil.KEY_FILE_PROPERTY, keyFile.toString());
+        encryptedValue = EncryptionUtil.encrypt(VALUE, version);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return EncryptionUtil.encrypt(VALUE, version);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return EncryptionUtil.decrypt(encryptedValue);
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.nextlabs.cc.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of decrypting a batch of distinct values one by one in a single thread with the parallel
+ * bulk decryption, and the decryption of a small set of repeated values which are served from the cache. The cache is
+ * disabled for the distinct values, so every value is decrypted.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcc.encryption.cache.size=0")
+@State(Scope.Benchmark)
+public class EncryptionUtilBenchmark {
+
+    private static final int VALUE_COUNT = 10000;
+
+    private List<String> encryptedValues;
+
+    @Setup
+    public void setup() {
+        List<String> values = new ArrayList<>(VALUE_COUNT);
+        for (int i = 0; i < VALUE_COUNT; i++) {
+            values.add("benchmark-password-" + i);
+        }
+        encryptedValues = EncryptionUtil.encryptAll(values);
+    }
+
+    @Benchmark
+    public List<String> singleThread() {
+        List<String> values = new ArrayList<>(encryptedValues.size());
+        for (String encryptedValue : encryptedValues) {
+            values.add(EncryptionUtil.decrypt(encryptedValue));
+        }
+        return values;
+    }
+
+    @Benchmark
+    public List<String> parallel() {
+        return EncryptionUtil.decryptAll(encryptedValues);
+    }
+
+    /**
+     * Decryption of repeated values with the cache enabled.
+     */
+    @State(Scope.Benchmark)
+    public static class Cached {
+
+        private static final int DISTINCT_VALUE_COUNT = 100;
+
+        private final List<String> encryptedValues = new ArrayList<>(VALUE_COUNT);
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < VALUE_COUNT; i++) {
+                encryptedValues.add(EncryptionUtil.encrypt("benchmark-password-" + i % DISTINCT_VALUE_COUNT));
+            }
+        }
+
+        @Benchmark
+        @Fork(value = 1, jvmArgsAppend = "-Dcc.encryption.cache.size=1024")
+        public List<String> repeatedValues() {
+            return EncryptionUtil.decryptAll(encryptedValues);
+        }
+
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.nextlabs.cc.common.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+import com.nextlabs.cc.common.retry.RetryPolicy;
+
+/**
+ * HTTP transport to a service protected with Basic authentication. The responses are read completely and the
+ * connections are not disconnected, so they are returned to the keep-alive cache of the JDK and reused by the next
+ * requests instead of paying a new TCP connection and TLS handshake for every request. The Authorization header is
+ * computed once, gzip compressed responses are accepted and the requests are retried with the given retry policy.
+ * <p>
+ * Conditional requests are supported by remembering the ETag and Last-Modified validators of the last response for
+ * each URI.
+ * <p>
+ * Each attempt of a request is bounded by the connect and read timeouts, which are limited to the deadline of the
+ * retry policy, so a service which does not respond cannot block the caller forever. The client error statuses other
+ * than 408 and 429 fail the request without retrying, as retrying does not change the result.
+ */
+public class HttpTransport {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 60000;
+    private static final String GZIP_ENCODING = "gzip";
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final String baseUrl;
+    private final String authorization;
+    private final RetryPolicy retryPolicy;
+    private final RetryPolicy.RetryListener retryListener;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final Map<String, String> entityTags = new ConcurrentHashMap<>();
+    private final Map<String, String> lastModifiedDates = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new HTTP transport.
+     *
+     * @param baseUrl       the base URL of the service, the request URIs are relative to this URL
+     * @param username      the username
+     * @param password      the password in plain text
+     * @param retryPolicy   the retry policy of the requests
+     * @param retryListener the listener notified before retrying a request
+     */
+    public HttpTransport(String baseUrl, String username, String password, RetryPolicy retryPolicy,
+                         RetryPolicy.RetryListener retryListener) {
+        this(baseUrl, username, password, retryPolicy, retryListener, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+                DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a new HTTP transport with the given timeouts. The timeouts are limited to the deadline of the retry
+     * policy if it has a deadline.
+     *
+     * @param baseUrl              the base URL of the service, the request URIs are relative to this URL
+     * @param username             the username
+     * @param password             the password in plain text
+     * @param retryPolicy          the retry policy of the requests
+     * @param retryListener        the listener notified before retrying a request
+     * @param connectTimeoutMillis the timeout in milliseconds to connect to the service
+     * @param readTimeoutMillis    the timeout in milliseconds to read the response
+     */
+    public HttpTransport(String baseUrl, String username, String password, RetryPolicy retryPolicy,
+                         RetryPolicy.RetryListener retryListener, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.baseUrl = baseUrl;
+        this.authorization = "Basic " + Base64.getEncoder()
+                .encodeToString(String.format("%s:%s", username, password).getBytes(StandardCharsets.UTF_8));
+        this.retryPolicy = retryPolicy;
+        this.retryListener = retryListener;
+        this.connectTimeoutMillis = boundTimeout(connectTimeoutMillis, retryPolicy.getDeadlineMillis());
+        this.readTimeoutMillis = boundTimeout(readTimeoutMillis, retryPolicy.getDeadlineMillis());
+    }
+
+    /**
+     * Send a GET request for the given URI.
+     *
+     * @param uri the URI relative to the base URL
+     * @return the response
+     * @throws IOException if the request failed within the retry policy or the service returned an error status
+     */
+    public Response get(String uri) throws IOException {
+        return get(uri, false);
+    }
+
+    /**
+     * Send a GET request for the given URI. If conditional, the validators of the last response for the URI are sent
+     * and null is returned if the content is not modified.
+     *
+     * @param uri         the URI relative to the base URL
+     * @param conditional true to send a conditional request
+     * @return the response or null if the content is not modified
+     * @throws IOException if the request failed within the retry policy or the service returned an error status
+     */
+    public Response get(String uri, boolean conditional) throws IOException {
+        URL url = new URL(String.format("%s/%s", baseUrl, uri));
+        return retryPolicy.execute(() -> {
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setRequestProperty("Authorization", authorization);
+            connection.setRequestProperty("Accept-Encoding", GZIP_ENCODING);
+            if (conditional) {
+                setValidators(connection, uri);
+            }
+            int statusCode = connection.getResponseCode();
+            if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                consume(connection.getErrorStream());
+                String message = String.format("Server returned HTTP response code: %d for URL: %s", statusCode, url);
+                if (statusCode < HttpURLConnection.HTTP_INTERNAL_ERROR
+                        && statusCode != HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                        && statusCode != HTTP_TOO_MANY_REQUESTS) {
+                    throw new RetryPolicy.NonRetryableException(message);
+                }
+                throw new IOException(message);
+            }
+            byte[] body = readBody(connection);
+            if (conditional && statusCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return null;
+            }
+            Response response = new Response(statusCode, body, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"));
+            if (conditional) {
+                storeValidators(uri, response);
+            }
+            return response;
+        }, retryListener);
+    }
+
+    /**
+     * Forget the validators remembered for the given URI, so the next conditional request returns the content.
+     *
+     * @param uri the URI relative to the base URL
+     */
+    public void removeValidators(String uri) {
+        entityTags.remove(uri);
+        lastModifiedDates.remove(uri);
+    }
+
+    /**
+     * Returns the retry policy of the requests.
+     *
+     * @return the retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    private static int boundTimeout(int timeoutMillis, long deadlineMillis) {
+        if (deadlineMillis > 0 && (timeoutMillis <= 0 || timeoutMillis > deadlineMillis)) {
+            return (int) Math.min(deadlineMillis, Integer.MAX_VALUE);
+        }
+        return timeoutMillis;
+    }
+
+    private void setValidators(HttpURLConnection connection, String uri) {
+        String entityTag = entityTags.get(uri);
+        if (entityTag != null) {
+            connection.setRequestProperty("If-None-Match", entityTag);
+        }
+        String lastModified = lastModifiedDates.get(uri);
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+    }
+
+    private static byte[] readBody(HttpURLConnection connection) throws IOException {
+        try (InputStream inputStream = connection.getInputStream()) {
+            byte[] body = inputStream.readAllBytes();
+            if (GZIP_ENCODING.equalsIgnoreCase(connection.getContentEncoding()) && body.length > 0) {
+                try (InputStream gzipInputStream = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                    return gzipInputStream.readAllBytes();
+                }
+            }
+            return body;
+        }
+    }
+
+    private static void consume(InputStream inputStream) throws IOException {
+        if (inputStream != null) {
+            try (InputStream errorStream = inputStream) {
+                errorStream.readAllBytes();
+            }
+        }
+    }
+
+    private void storeValidators(String uri, Response response) {
+        if (response.getEntityTag() != null) {
+            entityTags.put(uri, response.getEntityTag());
+        } else {
+            entityTags.remove(uri);
+        }
+        if (response.getLastModified() != null) {
+            lastModifiedDates.put(uri, response.getLastModified());
+        } else {
+            lastModifiedDates.remove(uri);
+        }
+    }
+
+    /**
+     * Response of a request with the decompressed body.
+     */
+    public static final class Response {
+
+        private final int statusCode;
+        private final byte[] body;
+        private final String entityTag;
+        private final String lastModified;
+
+        private Response(int statusCode, byte[] body, String entityTag, String lastModified) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.entityTag = entityTag;
+            this.lastModified = lastModified;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public InputStream getBodyAsStream() {
+            return new ByteArrayInputStream(body);
+        }
+
+        public String getEntityTag() {
+            return entityTag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+    }
+
+}
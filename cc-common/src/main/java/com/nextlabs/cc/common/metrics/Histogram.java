@@ -0,0 +1,131 @@
+package com.nextlabs.cc.common.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of values with fixed bucket upper bounds. The buckets, the count and the sum are LongAdder counters, so
+ * recording a value does not lock or allocate and the histogram can be recorded from many threads in production. The
+ * bucket counts are not cumulative, and the values above the last bound are counted in an overflow bucket.
+ */
+public final class Histogram {
+
+    private static final long MILLISECOND = 1_000_000L;
+    private static final long[] DURATION_BOUNDS = {MILLISECOND, 5 * MILLISECOND, 10 * MILLISECOND,
+            25 * MILLISECOND, 50 * MILLISECOND, 100 * MILLISECOND, 250 * MILLISECOND, 500 * MILLISECOND,
+            1000 * MILLISECOND, 2500 * MILLISECOND, 5000 * MILLISECOND, 10000 * MILLISECOND, 30000 * MILLISECOND};
+    private static final long[] SIZE_BOUNDS = {1L << 10, 1L << 12, 1L << 14, 1L << 16, 1L << 18, 1L << 20,
+            1L << 22, 1L << 24, 1L << 26};
+
+    private final long[] bounds;
+    private final double unit;
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates a new histogram.
+     *
+     * @param bounds the ascending upper bounds of the buckets
+     * @param unit   the value of one recorded unit in the exported unit, such as 1e-9 for nanoseconds exported in
+     *               seconds
+     */
+    public Histogram(long[] bounds, double unit) {
+        this.bounds = bounds.clone();
+        this.unit = unit;
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Creates a histogram of durations recorded in nanoseconds and exported in seconds, with buckets from 1 ms to
+     * 30 s.
+     *
+     * @return the histogram
+     */
+    public static Histogram ofDurations() {
+        return new Histogram(DURATION_BOUNDS, 1e-9);
+    }
+
+    /**
+     * Creates a histogram of sizes in bytes, with buckets from 1 KiB to 64 MiB.
+     *
+     * @return the histogram
+     */
+    public static Histogram ofSizes() {
+        return new Histogram(SIZE_BOUNDS, 1);
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param value the value
+     */
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns the upper bounds of the buckets in the exported unit.
+     *
+     * @return the upper bounds of the buckets excluding the overflow bucket
+     */
+    public double[] getBounds() {
+        double[] exportedBounds = new double[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            exportedBounds[i] = bounds[i] * unit;
+        }
+        return exportedBounds;
+    }
+
+    /**
+     * Returns the number of values recorded in each bucket, the last count is the overflow bucket.
+     *
+     * @return the bucket counts
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of the recorded values in the exported unit.
+     *
+     * @return the sum of the values
+     */
+    public double getSum() {
+        return sum.sum() * unit;
+    }
+
+    /**
+     * Returns the maximum recorded value in the exported unit.
+     *
+     * @return the maximum value or 0 if no value is recorded
+     */
+    public double getMax() {
+        return max.get() * unit;
+    }
+
+}
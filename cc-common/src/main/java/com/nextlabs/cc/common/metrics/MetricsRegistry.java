@@ -0,0 +1,176 @@
+package com.nextlabs.cc.common.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the refresh metrics of the clients in the JVM. The registered metrics are exposed as MXBeans named
+ * "com.nextlabs.cc:type=RefreshMetrics,name=&lt;name&gt;" in the platform MBean server unless the
+ * "cc.metrics.jmx.enabled" system property is false, and can be exported in the Prometheus text format.
+ */
+public final class MetricsRegistry {
+
+    public static final String JMX_ENABLED_PROPERTY = "cc.metrics.jmx.enabled";
+    private static final String JMX_DOMAIN = "com.nextlabs.cc";
+    private static final String PROMETHEUS_PREFIX = "cc_refresh_";
+    private static final Map<String, RefreshMetrics> metrics = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    /**
+     * Register the given metrics with the given name, replacing the metrics registered with the same name.
+     *
+     * @param name           the name of the client, such as "config-client/application"
+     * @param refreshMetrics the metrics to register
+     * @return true if the metrics are registered in the platform MBean server
+     */
+    public static synchronized boolean register(String name, RefreshMetrics refreshMetrics) {
+        metrics.put(name, refreshMetrics);
+        if (!Boolean.parseBoolean(System.getProperty(JMX_ENABLED_PROPERTY, "true"))) {
+            return false;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(refreshMetrics, objectName);
+            return true;
+        } catch (JMException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Unregister the metrics with the given name.
+     *
+     * @param name the name of the client
+     */
+    public static synchronized void unregister(String name) {
+        if (metrics.remove(name) == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = getObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException | SecurityException e) {
+            // The MBean is not registered
+        }
+    }
+
+    /**
+     * Returns the registered metrics.
+     *
+     * @return the metrics by client name in name order
+     */
+    public static Map<String, RefreshMetrics> getMetrics() {
+        return new TreeMap<>(metrics);
+    }
+
+    /**
+     * Returns the registered metrics in the Prometheus text exposition format.
+     *
+     * @return the metrics text
+     */
+    public static String toPrometheusText() {
+        StringBuilder text = new StringBuilder();
+        try {
+            writePrometheusText(text);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Write the registered metrics in the Prometheus text exposition format. The client name is the "client" label of
+     * the samples.
+     *
+     * @param output the output to write
+     * @throws IOException if the metrics could not be written
+     */
+    public static void writePrometheusText(Appendable output) throws IOException {
+        Map<String, RefreshMetrics> registeredMetrics = getMetrics();
+        String durationName = PROMETHEUS_PREFIX + "stage_duration_seconds";
+        output.append("# HELP ").append(durationName).append(" Duration of the refresh stages.\n");
+        output.append("# TYPE ").append(durationName).append(" histogram\n");
+        for (Map.Entry<String, RefreshMetrics> entry : registeredMetrics.entrySet()) {
+            for (Map.Entry<String, Histogram> stage : entry.getValue().getStages().entrySet()) {
+                writeHistogram(output, durationName, labels(entry.getKey(), stage.getKey()), stage.getValue());
+            }
+        }
+        String failureName = PROMETHEUS_PREFIX + "stage_failures_total";
+        output.append("# HELP ").append(failureName).append(" Number of failed refresh stages.\n");
+        output.append("# TYPE ").append(failureName).append(" counter\n");
+        for (Map.Entry<String, RefreshMetrics> entry : registeredMetrics.entrySet()) {
+            for (Map.Entry<String, Long> failure : entry.getValue().getStageFailures().entrySet()) {
+                writeSample(output, failureName, labels(entry.getKey(), failure.getKey()), failure.getValue());
+            }
+        }
+        String payloadName = PROMETHEUS_PREFIX + "payload_bytes";
+        output.append("# HELP ").append(payloadName).append(" Size of the received payloads.\n");
+        output.append("# TYPE ").append(payloadName).append(" histogram\n");
+        for (Map.Entry<String, RefreshMetrics> entry : registeredMetrics.entrySet()) {
+            writeHistogram(output, payloadName, labels(entry.getKey(), null), entry.getValue().getPayloadSizes());
+        }
+        Map<String, Map<String, Long>> gauges = new TreeMap<>();
+        for (Map.Entry<String, RefreshMetrics> entry : registeredMetrics.entrySet()) {
+            for (Map.Entry<String, Long> gauge : entry.getValue().getGauges().entrySet()) {
+                gauges.computeIfAbsent(gauge.getKey(), key -> new TreeMap<>()).put(entry.getKey(), gauge.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, Long>> gauge : gauges.entrySet()) {
+            String gaugeName = PROMETHEUS_PREFIX + gauge.getKey();
+            output.append("# TYPE ").append(gaugeName).append(" gauge\n");
+            for (Map.Entry<String, Long> value : gauge.getValue().entrySet()) {
+                writeSample(output, gaugeName, labels(value.getKey(), null), value.getValue());
+            }
+        }
+    }
+
+    private static void writeHistogram(Appendable output, String name, String labels, Histogram histogram)
+            throws IOException {
+        double[] bounds = histogram.getBounds();
+        long[] counts = histogram.getBucketCounts();
+        long cumulativeCount = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulativeCount += counts[i];
+            writeSample(output, name + "_bucket", labels + ",le=\"" + bounds[i] + "\"", cumulativeCount);
+        }
+        cumulativeCount += counts[bounds.length];
+        writeSample(output, name + "_bucket", labels + ",le=\"+Inf\"", cumulativeCount);
+        writeSample(output, name + "_sum", labels, histogram.getSum());
+        writeSample(output, name + "_count", labels, cumulativeCount);
+    }
+
+    private static void writeSample(Appendable output, String name, String labels, Number value) throws IOException {
+        output.append(name).append('{').append(labels).append("} ").append(value.toString()).append('\n');
+    }
+
+    private static String labels(String client, String stage) {
+        String labels = "client=\"" + escape(client) + "\"";
+        return stage != null ? labels + ",stage=\"" + escape(stage) + "\"" : labels;
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static ObjectName getObjectName(String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=RefreshMetrics,name=" + ObjectName.quote(name));
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.nextlabs.cc.common.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics of the refresh pipeline of a client, which are the duration histograms and the failure counts of the
+ * refresh stages, the histogram of the received payload sizes and gauges read when the metrics are exported, such as
+ * the snapshot version and the retry count of the retry policy. A stage is recorded with the start time taken with
+ * {@link System#nanoTime()} before the stage:
+ * <pre>
+ * long start = System.nanoTime();
+ * ...
+ * metrics.recordStage(RefreshMetrics.FETCH, start);
+ * </pre>
+ * The metrics are recorded with LongAdder counters and are cheap enough to be left enabled in production. The metrics
+ * are exported with the {@link MetricsRegistry}.
+ */
+public final class RefreshMetrics implements RefreshMetricsMXBean {
+
+    public static final String FETCH = "fetch";
+    public static final String PARSE = "parse";
+    public static final String DECRYPT = "decrypt";
+    public static final String INTERPOLATE = "interpolate";
+    public static final String PUBLISH = "publish";
+    public static final String LOGGER_RECONFIGURE = "logger_reconfigure";
+    public static final String SECURE_STORE_UNZIP = "secure_store_unzip";
+
+    private final Map<String, Histogram> stages = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private final Histogram payloadSizes = Histogram.ofSizes();
+
+    /**
+     * Record a completed stage.
+     *
+     * @param stage      the stage name
+     * @param startNanos the start time of the stage from {@link System#nanoTime()}
+     */
+    public void recordStage(String stage, long startNanos) {
+        stages.computeIfAbsent(stage, name -> Histogram.ofDurations()).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record a failed stage. The duration of a failed stage is not recorded.
+     *
+     * @param stage the stage name
+     */
+    public void recordFailure(String stage) {
+        failures.computeIfAbsent(stage, name -> new LongAdder()).increment();
+    }
+
+    /**
+     * Record the size of a received payload.
+     *
+     * @param bytes the payload size in bytes
+     */
+    public void recordPayload(long bytes) {
+        payloadSizes.record(bytes);
+    }
+
+    /**
+     * Add a gauge which is read when the metrics are exported. A gauge with the same name is replaced.
+     *
+     * @param name  the gauge name
+     * @param gauge the function returning the current value
+     */
+    public void addGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Returns the duration histograms of the stages.
+     *
+     * @return the stage histograms by stage name in name order
+     */
+    public Map<String, Histogram> getStages() {
+        return Collections.unmodifiableMap(new TreeMap<>(stages));
+    }
+
+    /**
+     * Returns the histogram of the received payload sizes.
+     *
+     * @return the payload size histogram
+     */
+    public Histogram getPayloadSizes() {
+        return payloadSizes;
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        return collect(stages, Histogram::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getStageFailures() {
+        return collect(failures, LongAdder::sum);
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis() {
+        return collect(stages, histogram -> histogram.getCount() > 0
+                ? histogram.getSum() * 1000 / histogram.getCount() : 0.0);
+    }
+
+    @Override
+    public Map<String, Double> getStageMaxMillis() {
+        return collect(stages, histogram -> histogram.getMax() * 1000);
+    }
+
+    @Override
+    public long getPayloadCount() {
+        return payloadSizes.getCount();
+    }
+
+    @Override
+    public long getPayloadBytes() {
+        return (long) payloadSizes.getSum();
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        return collect(gauges, LongSupplier::getAsLong);
+    }
+
+    private static <T, R> Map<String, R> collect(Map<String, T> values, Function<T, R> function) {
+        Map<String, R> result = new TreeMap<>();
+        for (Map.Entry<String, T> entry : values.entrySet()) {
+            result.put(entry.getKey(), function.apply(entry.getValue()));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.nextlabs.cc.common.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the refresh metrics of a client.
+ */
+public interface RefreshMetricsMXBean {
+
+    /**
+     * Returns the number of times each stage is performed.
+     *
+     * @return the stage counts by stage name
+     */
+    Map<String, Long> getStageCounts();
+
+    /**
+     * Returns the number of times each stage failed.
+     *
+     * @return the stage failure counts by stage name
+     */
+    Map<String, Long> getStageFailures();
+
+    /**
+     * Returns the mean duration of each stage in milliseconds.
+     *
+     * @return the mean stage durations by stage name
+     */
+    Map<String, Double> getStageMeanMillis();
+
+    /**
+     * Returns the maximum duration of each stage in milliseconds.
+     *
+     * @return the maximum stage durations by stage name
+     */
+    Map<String, Double> getStageMaxMillis();
+
+    /**
+     * Returns the number of payloads received.
+     *
+     * @return the number of payloads
+     */
+    long getPayloadCount();
+
+    /**
+     * Returns the total size of the payloads received in bytes.
+     *
+     * @return the total payload size
+     */
+    long getPayloadBytes();
+
+    /**
+     * Returns the current values of the gauges, such as the snapshot version and the retry count.
+     *
+     * @return the gauge values by gauge name
+     */
+    Map<String, Long> getGauges();
+
+}
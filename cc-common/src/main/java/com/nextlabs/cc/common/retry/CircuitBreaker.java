@@ -0,0 +1,123 @@
+package com.nextlabs.cc.common.retry;
+
+/**
+ * Circuit breaker for a remote service. The circuit opens after the given number of consecutive failures and the
+ * calls fail fast while it is open. When the open interval has elapsed, a single trial call is allowed and the circuit
+ * closes again if the trial call succeeds.
+ */
+public class CircuitBreaker {
+
+    private final int failureThreshold;
+    private final long openIntervalMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long openCount;
+    private long rejectedCount;
+
+    /**
+     * Creates a new circuit breaker.
+     *
+     * @param failureThreshold   the number of consecutive failures which opens the circuit, 0 to never open it
+     * @param openIntervalMillis the time in milliseconds the circuit stays open before a trial call is allowed
+     */
+    public CircuitBreaker(int failureThreshold, long openIntervalMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openIntervalMillis = openIntervalMillis;
+    }
+
+    /**
+     * Returns true if a call is allowed. If the circuit is open and the open interval has elapsed, the circuit moves
+     * to the half open state and the call is allowed as the trial call. Other calls are not allowed until the result
+     * of the trial call is recorded.
+     *
+     * @return true if the call is allowed
+     */
+    public synchronized boolean allowCall() {
+        if (state == State.HALF_OPEN || (state == State.OPEN
+                && System.currentTimeMillis() - openedAt < openIntervalMillis)) {
+            rejectedCount++;
+            return false;
+        }
+        if (state == State.OPEN) {
+            state = State.HALF_OPEN;
+        }
+        return true;
+    }
+
+    /**
+     * Record a successful call and close the circuit.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Record a failed call. The circuit opens if the failure threshold is reached or the trial call failed.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (failureThreshold > 0 && consecutiveFailures >= failureThreshold
+                && state == State.CLOSED)) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            openCount++;
+        }
+    }
+
+    /**
+     * Returns the current state of the circuit.
+     *
+     * @return the state of the circuit
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the number of consecutive failures recorded.
+     *
+     * @return the number of consecutive failures
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Returns the number of times the circuit opened.
+     *
+     * @return the number of times the circuit opened
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * Returns the number of calls rejected while the circuit was open.
+     *
+     * @return the number of rejected calls
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Returns the settings of the circuit breaker.
+     *
+     * @return the settings of the circuit breaker
+     */
+    @Override
+    public String toString() {
+        return String.format("CircuitBreaker[failureThreshold=%d, openInterval=%d]", failureThreshold,
+                openIntervalMillis);
+    }
+
+    /**
+     * States of the circuit.
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+}
@@ -0,0 +1,265 @@
+package com.nextlabs.cc.common.retry;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Retry policy for calls to a remote service. The failed calls are retried with exponential backoff and full jitter,
+ * i.e. the delay before a retry is a random time between zero and the exponentially growing backoff, until the
+ * maximum number of attempts or the deadline is reached. The circuit breaker is checked before each attempt, so the
+ * calls fail fast and the retries stop as soon as the circuit breaker is open. A call which fails with a
+ * {@link NonRetryableException} is not retried.
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialIntervalMillis;
+    private final long maxIntervalMillis;
+    private final double multiplier;
+    private final long deadlineMillis;
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicLong callCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+
+    /**
+     * Creates a new retry policy.
+     *
+     * @param maxAttempts           the maximum number of attempts of a call, 0 for no limit
+     * @param initialIntervalMillis the backoff in milliseconds before the first retry
+     * @param maxIntervalMillis     the maximum backoff in milliseconds
+     * @param multiplier            the multiplier applied to the backoff after each retry
+     * @param deadlineMillis        the maximum time in milliseconds spent on a call including retries, 0 for no limit
+     * @param circuitBreaker        the circuit breaker of the remote service
+     */
+    public RetryPolicy(int maxAttempts, long initialIntervalMillis, long maxIntervalMillis, double multiplier,
+                       long deadlineMillis, CircuitBreaker circuitBreaker) {
+        this.maxAttempts = maxAttempts;
+        this.initialIntervalMillis = initialIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.multiplier = multiplier;
+        this.deadlineMillis = deadlineMillis;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Creates a new retry policy and a circuit breaker from the given properties. The properties "retry.max-attempts",
+     * "retry.initial-interval", "retry.max-interval", "retry.multiplier", "retry.deadline",
+     * "circuit-breaker.failure-threshold" and "circuit-breaker.open-interval" are read with the given prefix and the
+     * default values are used for the properties not found.
+     *
+     * @param properties the properties
+     * @param prefix     the prefix of the property names
+     * @return the retry policy
+     */
+    public static RetryPolicy fromProperties(Properties properties, String prefix) {
+        return new RetryPolicy(
+                Integer.parseInt(properties.getProperty(prefix + "retry.max-attempts", "10")),
+                Long.parseLong(properties.getProperty(prefix + "retry.initial-interval", "1000")),
+                Long.parseLong(properties.getProperty(prefix + "retry.max-interval", "30000")),
+                Double.parseDouble(properties.getProperty(prefix + "retry.multiplier", "2")),
+                Long.parseLong(properties.getProperty(prefix + "retry.deadline", "0")),
+                new CircuitBreaker(
+                        Integer.parseInt(properties.getProperty(prefix + "circuit-breaker.failure-threshold", "5")),
+                        Long.parseLong(properties.getProperty(prefix + "circuit-breaker.open-interval", "30000"))));
+    }
+
+    /**
+     * Execute the given call and retry it if an IOException is thrown.
+     *
+     * @param call the call to execute
+     * @param <T>  the result type of the call
+     * @return the result of the call
+     * @throws IOException if the call failed in all the attempts, the deadline is reached, the circuit breaker is
+     *                     open or the thread is interrupted while waiting for a retry
+     */
+    public <T> T execute(Call<T> call) throws IOException {
+        return execute(call, (attempt, delay, e) -> {
+        });
+    }
+
+    /**
+     * Execute the given call and retry it if an IOException other than a NonRetryableException is thrown. A
+     * RuntimeException or Error thrown by the call is recorded as a failure in the circuit breaker and is not retried,
+     * so the trial call of a half-open circuit breaker always records its outcome.
+     *
+     * @param call          the call to execute
+     * @param retryListener the listener notified before waiting to retry the call
+     * @param <T>           the result type of the call
+     * @return the result of the call
+     * @throws IOException if the call failed in all the attempts, the deadline is reached, the circuit breaker is
+     *                     open or the thread is interrupted while waiting for a retry
+     */
+    public <T> T execute(Call<T> call, RetryListener retryListener) throws IOException {
+        callCount.incrementAndGet();
+        long startTime = System.currentTimeMillis();
+        double backoff = initialIntervalMillis;
+        IOException lastException = null;
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.allowCall()) {
+                failureCount.incrementAndGet();
+                CircuitBreakerOpenException circuitBreakerOpenException = new CircuitBreakerOpenException(
+                        "Circuit breaker is open, the remote service is not available");
+                if (lastException != null) {
+                    circuitBreakerOpenException.addSuppressed(lastException);
+                }
+                throw circuitBreakerOpenException;
+            }
+            try {
+                T result = call.call();
+                circuitBreaker.recordSuccess();
+                return result;
+            } catch (NonRetryableException e) {
+                // The remote service is available and rejected the call
+                circuitBreaker.recordSuccess();
+                failureCount.incrementAndGet();
+                throw e;
+            } catch (IOException e) {
+                circuitBreaker.recordFailure();
+                long delay = ThreadLocalRandom.current().nextLong((long) Math.min(backoff, maxIntervalMillis) + 1);
+                if ((maxAttempts > 0 && attempt >= maxAttempts)
+                        || (deadlineMillis > 0 && System.currentTimeMillis() - startTime + delay > deadlineMillis)
+                        || circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                    failureCount.incrementAndGet();
+                    throw e;
+                }
+                retryListener.onRetry(attempt, delay, e);
+                retryCount.incrementAndGet();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    failureCount.incrementAndGet();
+                    InterruptedIOException interruptedException = new InterruptedIOException(
+                            "Interrupted while waiting to retry");
+                    interruptedException.addSuppressed(e);
+                    throw interruptedException;
+                }
+                backoff *= multiplier;
+                lastException = e;
+            } catch (RuntimeException | Error e) {
+                circuitBreaker.recordFailure();
+                failureCount.incrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum time in milliseconds spent on a call including retries.
+     *
+     * @return the deadline in milliseconds, 0 if there is no limit
+     */
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Returns the circuit breaker of the remote service.
+     *
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns the number of calls executed.
+     *
+     * @return the number of calls
+     */
+    public long getCallCount() {
+        return callCount.get();
+    }
+
+    /**
+     * Returns the number of retries performed.
+     *
+     * @return the number of retries
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * Returns the number of calls failed after retries or rejected by the circuit breaker.
+     *
+     * @return the number of failed calls
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Returns the settings of the retry policy and its circuit breaker. Retry policies with the same settings have the
+     * same string.
+     *
+     * @return the settings of the retry policy
+     */
+    @Override
+    public String toString() {
+        return String.format("RetryPolicy[maxAttempts=%d, initialInterval=%d, maxInterval=%d, multiplier=%s, "
+                        + "deadline=%d, %s]", maxAttempts, initialIntervalMillis, maxIntervalMillis, multiplier,
+                deadlineMillis, circuitBreaker);
+    }
+
+    /**
+     * A call to the remote service.
+     *
+     * @param <T> the result type of the call
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+
+        T call() throws IOException;
+
+    }
+
+    /**
+     * Listener notified before waiting to retry a call.
+     */
+    @FunctionalInterface
+    public interface RetryListener {
+
+        /**
+         * Invoked before waiting to retry a call.
+         *
+         * @param attempt the number of the failed attempt
+         * @param delay   the delay in milliseconds before the retry
+         * @param e       the exception of the failed attempt
+         */
+        void onRetry(int attempt, long delay, IOException e);
+
+    }
+
+    /**
+     * Thrown by a call which should not be retried, such as a request rejected by the remote service as invalid or
+     * unauthorized.
+     */
+    public static class NonRetryableException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public NonRetryableException(String message) {
+            super(message);
+        }
+
+    }
+
+    /**
+     * Thrown when a call is rejected as the circuit breaker is open.
+     */
+    public static class CircuitBreakerOpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public CircuitBreakerOpenException(String message) {
+            super(message);
+        }
+
+    }
+
+}
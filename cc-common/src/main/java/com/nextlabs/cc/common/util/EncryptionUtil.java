@@ -1,11 +1,57 @@
 package com.nextlabs.cc.common.util;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.apache.commons.lang3.StringUtils;
 
 import com.bluejungle.framework.crypt.ReversibleEncryptor;
 
 /**
  * Utility for handling encryption/decryption.
+ * <p>
+ * Values encrypted with the legacy ReversibleEncryptor have the "{cipher}" prefix. Values with the "{cipher:v2}" prefix
+ * are encrypted with AES-GCM, which is an authenticated cipher accelerated with the AES instructions of the CPU. The v2
+ * value contains the Base64 encoded random 96 bit IV followed by the ciphertext and the authentication tag. The v2 key
+ * is read from the file set with the "cc.encryption.key.file" system property, which contains the Base64 encoded 128,
+ * 192 or 256 bit AES key, when it is first required. Both versions are decrypted with the same methods.
+ * <p>
+ * Each thread uses its own ReversibleEncryptor, so the methods are safe to call concurrently without depending on the
+ * thread safety of the encryptor. The decrypted values are not cached by default, so the plain text is not kept after
+ * it is used. A bounded cache of decrypted values can be enabled with the "cc.encryption.cache.size" system property,
+ * in which case the least recently used entry is evicted when the cache is full. The bulk methods process large lists in parallel
+ * on the common fork join pool.
+ * <p>
+ * Large payloads are encrypted and decrypted as streams in chunks of 64 KiB with the v2 AES-GCM key, so the memory
+ * used does not depend on the size of the payload. The encrypted stream starts with a header of a magic number, the
+ * format version and a random stream identifier, followed by frames with the length, the final chunk flag, the random
+ * IV and the encrypted chunk. The header, the chunk index and the final chunk flag are authenticated as the associated
+ * data of each chunk, hence a modified header, reordered or removed frames, frames of another stream and a stream
+ * truncated before the final chunk are detected when decrypting.
  *
  * @author Sachindra Dasun
  */
@@ -13,24 +59,338 @@ public class EncryptionUtil {
 
     public static final String CIPHER_VALUE_FORMAT = "{cipher}%s";
     public static final String CIPHER_VALUE_PREFIX = "{cipher}";
-    private static final ReversibleEncryptor REVERSIBLE_ENCRYPTOR = new ReversibleEncryptor();
+    public static final String CIPHER_V2_VALUE_FORMAT = "{cipher:v2}%s";
+    public static final String CIPHER_V2_VALUE_PREFIX = "{cipher:v2}";
+    public static final String KEY_FILE_PROPERTY = "cc.encryption.key.file";
+    private static final ThreadLocal<ReversibleEncryptor> REVERSIBLE_ENCRYPTOR =
+            ThreadLocal.withInitial(ReversibleEncryptor::new);
+    private static final String AES_GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_IV_LENGTH = 12;
+    private static final int GCM_TAG_LENGTH = 128;
+    private static final ThreadLocal<Cipher> AES_GCM_CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(AES_GCM_TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES-GCM is not supported", e);
+        }
+    });
+    private static final ThreadLocal<SecureRandom> SECURE_RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+    private static volatile SecretKeySpec aesKey;
+    private static final int CACHE_SIZE = Integer.getInteger("cc.encryption.cache.size", 0);
+    private static final LruCache<String, String> DECRYPTED_VALUES = new LruCache<>(CACHE_SIZE);
+    private static final int PARALLEL_THRESHOLD = 256;
+    private static final int STREAM_MAGIC = 0x43435345;
+    private static final int STREAM_FORMAT_VERSION = 2;
+    private static final int STREAM_ID_LENGTH = 16;
+    private static final int STREAM_HEADER_LENGTH = 8 + STREAM_ID_LENGTH;
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    private static final int FRAME_OVERHEAD = 1 + GCM_IV_LENGTH + GCM_TAG_LENGTH / 8;
 
     private EncryptionUtil() {
     }
 
     public static String encrypt(String text) {
-        return String.format(CIPHER_VALUE_FORMAT, REVERSIBLE_ENCRYPTOR.encrypt(text));
+        return encrypt(text, CipherVersion.V1);
+    }
+
+    /**
+     * Encrypt the given text with the given cipher version.
+     *
+     * @param text    the text to encrypt
+     * @param version the cipher version
+     * @return the encrypted text with the prefix of the cipher version
+     */
+    public static String encrypt(String text, CipherVersion version) {
+        if (version == CipherVersion.V2) {
+            return String.format(CIPHER_V2_VALUE_FORMAT, encryptWithAesGcm(text));
+        }
+        return String.format(CIPHER_VALUE_FORMAT, REVERSIBLE_ENCRYPTOR.get().encrypt(text));
     }
 
     public static String decrypt(String encryptedText) {
-        return REVERSIBLE_ENCRYPTOR.decrypt(encryptedText);
+        if (CACHE_SIZE <= 0 || encryptedText == null) {
+            return decryptValue(encryptedText);
+        }
+        String text = DECRYPTED_VALUES.get(encryptedText);
+        if (text == null) {
+            text = decryptValue(encryptedText);
+            DECRYPTED_VALUES.put(encryptedText, text);
+        }
+        return text;
     }
 
     public static String decryptIfEncrypted(String text) {
-        if (StringUtils.isNotEmpty(text) && text.startsWith(CIPHER_VALUE_PREFIX)) {
-            return REVERSIBLE_ENCRYPTOR.decrypt(text);
+        if (isEncrypted(text)) {
+            return decrypt(text);
         }
         return text;
     }
 
+    /**
+     * Decrypt the given text if it is encrypted without using the cache of decrypted values, so the plain text is not
+     * kept by EncryptionUtil even if the cache is enabled.
+     *
+     * @param text the text
+     * @return the decrypted text or the given text if it is not encrypted
+     */
+    public static String decryptIfEncryptedWithoutCache(String text) {
+        if (isEncrypted(text)) {
+            return decryptValue(text);
+        }
+        return text;
+    }
+
+    /**
+     * Check whether the given text is encrypted with any cipher version.
+     *
+     * @param text the text
+     * @return true if the text has the prefix of a cipher version
+     */
+    public static boolean isEncrypted(String text) {
+        return StringUtils.isNotEmpty(text)
+                && (text.startsWith(CIPHER_VALUE_PREFIX) || text.startsWith(CIPHER_V2_VALUE_PREFIX));
+    }
+
+    private static String decryptValue(String encryptedText) {
+        if (encryptedText != null && encryptedText.startsWith(CIPHER_V2_VALUE_PREFIX)) {
+            return decryptWithAesGcm(encryptedText.substring(CIPHER_V2_VALUE_PREFIX.length()));
+        }
+        return REVERSIBLE_ENCRYPTOR.get().decrypt(encryptedText);
+    }
+
+    private static SecretKeySpec getAesKey() {
+        SecretKeySpec key = aesKey;
+        if (key == null) {
+            synchronized (EncryptionUtil.class) {
+                if (aesKey == null) {
+                    aesKey = loadAesKey();
+                }
+                key = aesKey;
+            }
+        }
+        return key;
+    }
+
+    private static SecretKeySpec loadAesKey() {
+        String keyFile = System.getProperty(KEY_FILE_PROPERTY);
+        if (StringUtils.isEmpty(keyFile)) {
+            throw new IllegalStateException(String.format("%s system property is not set", KEY_FILE_PROPERTY));
+        }
+        byte[] key;
+        try {
+            key = Base64.getDecoder().decode(new String(Files.readAllBytes(Paths.get(keyFile)),
+                    StandardCharsets.US_ASCII).trim());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalStateException("Error in reading AES key from " + keyFile, e);
+        }
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalStateException("Invalid AES key length in " + keyFile);
+        }
+        return new SecretKeySpec(key, "AES");
+    }
+
+    private static String encryptWithAesGcm(String text) {
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        SECURE_RANDOM.get().nextBytes(iv);
+        Cipher cipher = AES_GCM_CIPHER.get();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, getAesKey(), new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+            byte[] plainText = text.getBytes(StandardCharsets.UTF_8);
+            byte[] encrypted = Arrays.copyOf(iv, GCM_IV_LENGTH + cipher.getOutputSize(plainText.length));
+            cipher.doFinal(plainText, 0, plainText.length, encrypted, GCM_IV_LENGTH);
+            return Base64.getEncoder().encodeToString(encrypted);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error in encrypting with AES-GCM", e);
+        }
+    }
+
+    private static String decryptWithAesGcm(String encryptedText) {
+        Cipher cipher = AES_GCM_CIPHER.get();
+        try {
+            byte[] encrypted = Base64.getDecoder().decode(encryptedText);
+            if (encrypted.length < GCM_IV_LENGTH) {
+                throw new IllegalArgumentException("Invalid AES-GCM encrypted value");
+            }
+            cipher.init(Cipher.DECRYPT_MODE, getAesKey(),
+                    new GCMParameterSpec(GCM_TAG_LENGTH, encrypted, 0, GCM_IV_LENGTH));
+            return new String(cipher.doFinal(encrypted, GCM_IV_LENGTH, encrypted.length - GCM_IV_LENGTH),
+                    StandardCharsets.UTF_8);
+        } catch (AEADBadTagException e) {
+            throw new IllegalArgumentException("AES-GCM encrypted value failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error in decrypting with AES-GCM", e);
+        }
+    }
+
+    /**
+     * Encrypt all the given texts. Large lists are encrypted in parallel and null texts are returned as null.
+     *
+     * @param texts the texts to encrypt
+     * @return the encrypted texts in the order of the given texts
+     */
+    public static List<String> encryptAll(List<String> texts) {
+        return map(texts, EncryptionUtil::encrypt);
+    }
+
+    /**
+     * Decrypt all the given encrypted texts. Large lists are decrypted in parallel and null texts are returned as
+     * null.
+     *
+     * @param encryptedTexts the encrypted texts to decrypt
+     * @return the decrypted texts in the order of the given encrypted texts
+     */
+    public static List<String> decryptAll(List<String> encryptedTexts) {
+        return map(encryptedTexts, EncryptionUtil::decrypt);
+    }
+
+    /**
+     * Decrypt all the given texts which are encrypted and return other texts as they are. Large lists are decrypted in
+     * parallel.
+     *
+     * @param texts the texts to decrypt
+     * @return the decrypted texts in the order of the given texts
+     */
+    public static List<String> decryptAllIfEncrypted(List<String> texts) {
+        return map(texts, EncryptionUtil::decryptIfEncrypted);
+    }
+
+    /**
+     * Clear the cache of decrypted values.
+     */
+    public static void clearCache() {
+        DECRYPTED_VALUES.clear();
+    }
+
+    /**
+     * Encrypt the given input stream to the given output stream with the v2 AES-GCM key. The streams are not closed.
+     *
+     * @param inputStream  the input stream with the data to encrypt
+     * @param outputStream the output stream to write the encrypted stream
+     * @throws IOException if an error occurred when reading or writing the streams
+     */
+    public static void encrypt(InputStream inputStream, OutputStream outputStream) throws IOException {
+        SecureRandom secureRandom = SECURE_RANDOM.get();
+        byte[] header = new byte[STREAM_HEADER_LENGTH];
+        secureRandom.nextBytes(header);
+        ByteBuffer.wrap(header).putInt(STREAM_MAGIC).putInt(STREAM_FORMAT_VERSION);
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        dataOutputStream.write(header);
+        Cipher cipher = AES_GCM_CIPHER.get();
+        SecretKeySpec key = getAesKey();
+        byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+        byte[] frame = new byte[FRAME_OVERHEAD + STREAM_CHUNK_SIZE];
+        byte[] iv = new byte[GCM_IV_LENGTH];
+        byte[] associatedData = Arrays.copyOf(header, STREAM_HEADER_LENGTH + 9);
+        boolean finalChunk;
+        long index = 0;
+        do {
+            int length = inputStream.readNBytes(chunk, 0, chunk.length);
+            finalChunk = length < chunk.length;
+            frame[0] = (byte) (finalChunk ? 1 : 0);
+            secureRandom.nextBytes(iv);
+            System.arraycopy(iv, 0, frame, 1, GCM_IV_LENGTH);
+            ByteBuffer.wrap(associatedData, STREAM_HEADER_LENGTH, 9).putLong(index++).put(frame[0]);
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, frame, 1, GCM_IV_LENGTH));
+                cipher.updateAAD(associatedData);
+                int frameLength = 1 + GCM_IV_LENGTH + cipher.doFinal(chunk, 0, length, frame, 1 + GCM_IV_LENGTH);
+                dataOutputStream.writeInt(frameLength);
+                dataOutputStream.write(frame, 0, frameLength);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Error in encrypting with AES-GCM", e);
+            }
+        } while (!finalChunk);
+        dataOutputStream.flush();
+    }
+
+    /**
+     * Decrypt the given encrypted input stream to the given output stream with the v2 AES-GCM key. The streams are not
+     * closed. The decrypted data of a chunk is written only after the chunk is authenticated, but the data written
+     * before an invalid chunk is found should be discarded.
+     *
+     * @param inputStream  the input stream with the encrypted stream
+     * @param outputStream the output stream to write the decrypted data
+     * @throws IOException if an error occurred when reading or writing the streams or the encrypted stream is invalid
+     */
+    public static void decrypt(InputStream inputStream, OutputStream outputStream) throws IOException {
+        DataInputStream dataInputStream = new DataInputStream(inputStream);
+        Cipher cipher = AES_GCM_CIPHER.get();
+        SecretKeySpec key = getAesKey();
+        byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+        byte[] frame = new byte[FRAME_OVERHEAD + STREAM_CHUNK_SIZE];
+        byte[] associatedData = new byte[STREAM_HEADER_LENGTH + 9];
+        try {
+            dataInputStream.readFully(associatedData, 0, STREAM_HEADER_LENGTH);
+            ByteBuffer header = ByteBuffer.wrap(associatedData);
+            if (header.getInt() != STREAM_MAGIC || header.getInt() != STREAM_FORMAT_VERSION) {
+                throw new IOException("Not an encrypted stream");
+            }
+            for (long index = 0; ; index++) {
+                int length = dataInputStream.readInt();
+                if (length < FRAME_OVERHEAD || length > frame.length) {
+                    throw new IOException(String.format("Invalid encrypted frame length %d", length));
+                }
+                dataInputStream.readFully(frame, 0, length);
+                boolean finalChunk = frame[0] != 0;
+                ByteBuffer.wrap(associatedData, STREAM_HEADER_LENGTH, 9).putLong(index).put(frame[0]);
+                cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(GCM_TAG_LENGTH, frame, 1, GCM_IV_LENGTH));
+                cipher.updateAAD(associatedData);
+                int chunkLength = cipher.doFinal(frame, 1 + GCM_IV_LENGTH, length - 1 - GCM_IV_LENGTH, chunk, 0);
+                outputStream.write(chunk, 0, chunkLength);
+                if (finalChunk) {
+                    break;
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Encrypted stream is truncated", e);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Encrypted frame failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Error in decrypting with AES-GCM", e);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Encrypt the data read from the given channel to the given channel. The channels are not closed.
+     *
+     * @param source      the channel with the data to encrypt
+     * @param destination the channel to write the encrypted stream
+     * @throws IOException if an error occurred when reading or writing the channels
+     */
+    public static void encrypt(ReadableByteChannel source, WritableByteChannel destination) throws IOException {
+        encrypt(Channels.newInputStream(source), Channels.newOutputStream(destination));
+    }
+
+    /**
+     * Decrypt the encrypted stream read from the given channel to the given channel. The channels are not closed.
+     *
+     * @param source      the channel with the encrypted stream
+     * @param destination the channel to write the decrypted data
+     * @throws IOException if an error occurred when reading or writing the channels or the encrypted stream is invalid
+     */
+    public static void decrypt(ReadableByteChannel source, WritableByteChannel destination) throws IOException {
+        decrypt(Channels.newInputStream(source), Channels.newOutputStream(destination));
+    }
+
+    /**
+     * Cipher versions of the encrypted values.
+     */
+    public enum CipherVersion {
+        /**
+         * Legacy ReversibleEncryptor with the "{cipher}" prefix.
+         */
+        V1,
+        /**
+         * AES-GCM with the "{cipher:v2}" prefix.
+         */
+        V2
+    }
+
+    private static List<String> map(List<String> texts, UnaryOperator<String> function) {
+        Stream<String> stream = texts.size() < PARALLEL_THRESHOLD ? texts.stream() : texts.parallelStream();
+        return stream.map(text -> text != null ? function.apply(text) : null)
+                .collect(Collectors.toList());
+    }
+
 }
@@ -0,0 +1,74 @@
+package com.nextlabs.cc.common.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache which evicts the least recently used entry when it is full. The entries are kept in an access ordered
+ * LinkedHashMap guarded by the lock of the cache, so the size never exceeds the capacity with concurrent callers.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class LruCache<K, V> {
+
+    private final Map<K, V> entries;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param capacity the maximum number of entries
+     */
+    LruCache(int capacity) {
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > capacity;
+            }
+
+        };
+    }
+
+    /**
+     * Returns the value of the given key and marks the entry as the most recently used.
+     *
+     * @param key the key
+     * @return the value or null if the key is not cached
+     */
+    synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Add the given entry as the most recently used and evict the least recently used entry if the cache is full.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    /**
+     * Returns the cached keys from the least recently used to the most recently used.
+     *
+     * @return the cached keys
+     */
+    synchronized List<K> keys() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+}
@@ -0,0 +1,143 @@
+package com.nextlabs.cc.common.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.nextlabs.cc.common.retry.CircuitBreaker;
+import com.nextlabs.cc.common.retry.RetryPolicy;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for HttpTransport using a local service stub.
+ */
+public class HttpTransportTest {
+
+    private static final byte[] CONTENT = "server.hostname=node.nextlabs.com\n".getBytes(StandardCharsets.UTF_8);
+    private static final String ENTITY_TAG = "\"version-1\"";
+    private static final String AUTHORIZATION = "Basic " + Base64.getEncoder()
+            .encodeToString("config-client:password".getBytes(StandardCharsets.UTF_8));
+    private static final Set<InetSocketAddress> clientAddresses = ConcurrentHashMap.newKeySet();
+    private static HttpServer server;
+    private static HttpTransport transport;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        ByteArrayOutputStream compressedContent = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedContent)) {
+            gzipOutputStream.write(CONTENT);
+        }
+        byte[] gzipContent = compressedContent.toByteArray();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/service/content", exchange -> {
+            clientAddresses.add(exchange.getRemoteAddress());
+            if (!AUTHORIZATION.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                exchange.sendResponseHeaders(401, -1);
+            } else if (ENTITY_TAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.getResponseHeaders().set("ETag", ENTITY_TAG);
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(200, gzipContent.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(gzipContent);
+                }
+            }
+            exchange.close();
+        });
+        server.createContext("/service/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        Properties properties = new Properties();
+        properties.setProperty("retry.max-attempts", "1");
+        transport = new HttpTransport(String.format("http://localhost:%d/service", server.getAddress().getPort()),
+                "config-client", "password", RetryPolicy.fromProperties(properties, ""), (attempt, delay, e) -> {
+        });
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        server.stop(0);
+    }
+
+    @Test
+    public void getDecompressesContent() throws IOException {
+        HttpTransport.Response response = transport.get("content");
+        assertEquals(200, response.getStatusCode());
+        assertArrayEquals(CONTENT, response.getBody());
+        assertEquals(ENTITY_TAG, response.getEntityTag());
+    }
+
+    @Test
+    public void conditionalGetReturnsNullIfNotModified() throws IOException {
+        transport.removeValidators("content");
+        assertArrayEquals(CONTENT, transport.get("content", true).getBody());
+        assertNull(transport.get("content", true));
+        transport.removeValidators("content");
+        assertArrayEquals(CONTENT, transport.get("content", true).getBody());
+    }
+
+    @Test
+    public void connectionsAreReused() throws IOException {
+        clientAddresses.clear();
+        for (int i = 0; i < 10; i++) {
+            transport.get("content");
+        }
+        assertEquals(1, clientAddresses.size());
+    }
+
+    @Test(expected = IOException.class)
+    public void errorStatusFails() throws IOException {
+        transport.get("missing");
+    }
+
+    @Test
+    public void clientErrorStatusIsNotRetried() throws IOException {
+        HttpTransport unauthorizedTransport = new HttpTransport(
+                String.format("http://localhost:%d/service", server.getAddress().getPort()), "config-client",
+                "invalid", new RetryPolicy(10, 1000, 1000, 1, 0, new CircuitBreaker(0, 0)), (attempt, delay, e) -> {
+        });
+        try {
+            unauthorizedTransport.get("content");
+            fail("Expected NonRetryableException");
+        } catch (RetryPolicy.NonRetryableException e) {
+            assertEquals(0, unauthorizedTransport.getRetryPolicy().getRetryCount());
+        }
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void readTimeoutFailsAttempt() throws IOException {
+        HttpTransport timeoutTransport = new HttpTransport(
+                String.format("http://localhost:%d/service", server.getAddress().getPort()), "config-client",
+                "password", new RetryPolicy(1, 0, 0, 1, 0, new CircuitBreaker(0, 0)), (attempt, delay, e) -> {
+        }, 1000, 100);
+        timeoutTransport.get("slow");
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.nextlabs.cc.common.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.junit.Test;
+
+/**
+ * Tests for RefreshMetrics and MetricsRegistry.
+ */
+public class RefreshMetricsTest {
+
+    @Test
+    public void recordHistogram() {
+        Histogram histogram = new Histogram(new long[]{10, 100}, 1);
+        histogram.record(5);
+        histogram.record(10);
+        histogram.record(50);
+        histogram.record(500);
+        assertArrayEquals(new long[]{2, 1, 1}, histogram.getBucketCounts());
+        assertEquals(4, histogram.getCount());
+        assertEquals(565, histogram.getSum(), 0);
+        assertEquals(500, histogram.getMax(), 0);
+    }
+
+    @Test
+    public void recordStages() {
+        RefreshMetrics metrics = new RefreshMetrics();
+        metrics.recordStage(RefreshMetrics.FETCH, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.recordStage(RefreshMetrics.FETCH, System.nanoTime());
+        metrics.recordFailure(RefreshMetrics.FETCH);
+        metrics.recordPayload(2048);
+        metrics.addGauge("snapshot_version", () -> 7);
+        assertEquals(Long.valueOf(2), metrics.getStageCounts().get(RefreshMetrics.FETCH));
+        assertEquals(Long.valueOf(1), metrics.getStageFailures().get(RefreshMetrics.FETCH));
+        assertTrue(metrics.getStageMaxMillis().get(RefreshMetrics.FETCH) >= 20);
+        assertEquals(1, metrics.getPayloadCount());
+        assertEquals(2048, metrics.getPayloadBytes());
+        assertEquals(Long.valueOf(7), metrics.getGauges().get("snapshot_version"));
+    }
+
+    @Test
+    public void writePrometheusText() {
+        RefreshMetrics metrics = new RefreshMetrics();
+        metrics.recordStage(RefreshMetrics.PUBLISH, System.nanoTime());
+        metrics.recordFailure(RefreshMetrics.FETCH);
+        metrics.recordPayload(100);
+        metrics.addGauge("snapshot_version", () -> 3);
+        MetricsRegistry.register("prometheus-test", metrics);
+        try {
+            String text = MetricsRegistry.toPrometheusText();
+            assertTrue(text.contains("# TYPE cc_refresh_stage_duration_seconds histogram\n"));
+            assertTrue(text.contains("cc_refresh_stage_duration_seconds_bucket"
+                    + "{client=\"prometheus-test\",stage=\"publish\",le=\"0.001\"} 1\n"));
+            assertTrue(text.contains(
+                    "cc_refresh_stage_duration_seconds_count{client=\"prometheus-test\",stage=\"publish\"} 1\n"));
+            assertTrue(text.contains(
+                    "cc_refresh_stage_failures_total{client=\"prometheus-test\",stage=\"fetch\"} 1\n"));
+            assertTrue(text.contains("cc_refresh_payload_bytes_bucket{client=\"prometheus-test\",le=\"1024.0\"} 1\n"));
+            assertTrue(text.contains("cc_refresh_payload_bytes_sum{client=\"prometheus-test\"} 100.0\n"));
+            assertTrue(text.contains("cc_refresh_snapshot_version{client=\"prometheus-test\"} 3\n"));
+        } finally {
+            MetricsRegistry.unregister("prometheus-test");
+        }
+        assertFalse(MetricsRegistry.toPrometheusText().contains("prometheus-test"));
+    }
+
+    @Test
+    public void registerMBean() throws Exception {
+        RefreshMetrics metrics = new RefreshMetrics();
+        metrics.recordStage(RefreshMetrics.PARSE, System.nanoTime());
+        metrics.addGauge("key_count", () -> 42);
+        assertTrue(MetricsRegistry.register("jmx-test/application", metrics));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("com.nextlabs.cc:type=RefreshMetrics,name="
+                + ObjectName.quote("jmx-test/application"));
+        try {
+            TabularData gauges = (TabularData) server.getAttribute(objectName, "Gauges");
+            CompositeData keyCount = gauges.get(new Object[]{"key_count"});
+            assertEquals(42L, keyCount.get("value"));
+            TabularData stageCounts = (TabularData) server.getAttribute(objectName, "StageCounts");
+            assertEquals(1L, stageCounts.get(new Object[]{RefreshMetrics.PARSE}).get("value"));
+        } finally {
+            MetricsRegistry.unregister("jmx-test/application");
+        }
+        assertFalse(server.isRegistered(objectName));
+        assertFalse(MetricsRegistry.getMetrics().containsKey("jmx-test/application"));
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.nextlabs.cc.common.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for RetryPolicy and CircuitBreaker.
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void retryUntilSuccess() throws IOException {
+        RetryPolicy retryPolicy = new RetryPolicy(5, 10, 50, 2, 0, new CircuitBreaker(0, 0));
+        AtomicInteger attempts = new AtomicInteger();
+        String result = retryPolicy.execute(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IOException("Connection refused");
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, retryPolicy.getRetryCount());
+        assertEquals(0, retryPolicy.getFailureCount());
+    }
+
+    @Test
+    public void failAfterMaxAttempts() {
+        RetryPolicy retryPolicy = new RetryPolicy(3, 10, 50, 2, 0, new CircuitBreaker(0, 0));
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryPolicy.execute(() -> {
+                attempts.incrementAndGet();
+                throw new IOException("Connection refused");
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Connection refused", e.getMessage());
+        }
+        assertEquals(3, attempts.get());
+        assertEquals(1, retryPolicy.getFailureCount());
+    }
+
+    @Test
+    public void failFastWhenCircuitBreakerIsOpen() throws IOException, InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 100);
+        RetryPolicy retryPolicy = new RetryPolicy(2, 1, 1, 1, 0, circuitBreaker);
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryPolicy.execute(() -> {
+                attempts.incrementAndGet();
+                throw new IOException("Connection refused");
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+        try {
+            retryPolicy.execute(() -> {
+                attempts.incrementAndGet();
+                return null;
+            });
+            fail("Expected CircuitBreakerOpenException");
+        } catch (RetryPolicy.CircuitBreakerOpenException e) {
+            assertEquals(2, attempts.get());
+            assertEquals(1, circuitBreaker.getRejectedCount());
+        }
+        Thread.sleep(150);
+        assertEquals("ok", retryPolicy.execute(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void stopRetryingWhenCircuitBreakerOpens() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, 60000);
+        RetryPolicy retryPolicy = new RetryPolicy(10, 1, 1, 1, 0, circuitBreaker);
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryPolicy.execute(() -> {
+                attempts.incrementAndGet();
+                throw new IOException("Connection refused");
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(2, attempts.get());
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+    }
+
+    @Test
+    public void doNotRetryNonRetryableException() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 60000);
+        RetryPolicy retryPolicy = new RetryPolicy(10, 1, 1, 1, 0, circuitBreaker);
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryPolicy.execute(() -> {
+                attempts.incrementAndGet();
+                throw new RetryPolicy.NonRetryableException("Unauthorized");
+            });
+            fail("Expected NonRetryableException");
+        } catch (IOException e) {
+            assertEquals(1, attempts.get());
+            assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+            assertEquals(1, retryPolicy.getFailureCount());
+        }
+    }
+
+    @Test
+    public void recordRuntimeExceptionOfTrialCall() throws IOException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        circuitBreaker.recordFailure();
+        RetryPolicy retryPolicy = new RetryPolicy(10, 1, 1, 1, 0, circuitBreaker);
+        try {
+            retryPolicy.execute(() -> {
+                throw new IllegalStateException("Invalid response");
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+        assertEquals("ok", retryPolicy.execute(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void recordErrorOfTrialCall() throws IOException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        circuitBreaker.recordFailure();
+        RetryPolicy retryPolicy = new RetryPolicy(10, 1, 1, 1, 0, circuitBreaker);
+        try {
+            retryPolicy.execute(() -> {
+                throw new NoClassDefFoundError("com/nextlabs/Missing");
+            });
+            fail("Expected NoClassDefFoundError");
+        } catch (NoClassDefFoundError e) {
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        }
+        assertEquals("ok", retryPolicy.execute(() -> "ok"));
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    public void allowSingleTrialCallWhenHalfOpen() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, 0);
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowCall());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowCall());
+        circuitBreaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getOpenCount());
+    }
+
+    @Test
+    public void fromProperties() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("spring.cloud.config.retry.max-attempts", "2");
+        properties.setProperty("spring.cloud.config.retry.initial-interval", "1");
+        RetryPolicy retryPolicy = RetryPolicy.fromProperties(properties, "spring.cloud.config.");
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retryPolicy.execute(() -> {
+                attempts.incrementAndGet();
+                throw new IOException("Connection refused");
+            });
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals(2, attempts.get());
+        }
+    }
+
+}
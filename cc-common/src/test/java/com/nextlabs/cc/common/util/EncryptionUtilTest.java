@@ -1,8 +1,22 @@
 package com.nextlabs.cc.common.util;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.BeforeClass;
 import org.junit.Test;
 
 /**
@@ -12,6 +26,16 @@ import org.junit.Test;
  */
 public class EncryptionUtilTest {
 
+    @BeforeClass
+    public static void createKeyFile() throws IOException {
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        Path keyFile = Files.createTempFile("encryption-util-test", ".key");
+        keyFile.toFile().deleteOnExit();
+        Files.write(keyFile, Base64.getEncoder().encode(key));
+        System.setProperty(EncryptionUtil.KEY_FILE_PROPERTY, keyFile.toString());
+    }
+
     @Test
     public void decryptIfEncrypted() {
         String text = "Test";
@@ -38,4 +62,55 @@ public class EncryptionUtilTest {
         assertEquals(text, decryptedText);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void encryptAllAndDecryptAll() {
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            texts.add("Test" + i);
+        }
+        List<String> encryptedTexts = EncryptionUtil.encryptAll(texts);
+        assertEquals(texts.size(), encryptedTexts.size());
+        for (String encryptedText : encryptedTexts) {
+            assertTrue(encryptedText.startsWith(EncryptionUtil.CIPHER_VALUE_PREFIX));
+        }
+        assertEquals(texts, EncryptionUtil.decryptAll(encryptedTexts));
+        assertEquals(texts, EncryptionUtil.decryptAll(encryptedTexts));
+        EncryptionUtil.clearCache();
+        assertEquals(texts.get(10), EncryptionUtil.decrypt(encryptedTexts.get(10)));
+    }
+
+    @Test
+    public void decryptAllIfEncrypted() {
+        List<String> decryptedTexts = EncryptionUtil.decryptAllIfEncrypted(
+                Arrays.asList("Plain", EncryptionUtil.encrypt("Test"), null, ""));
+        assertEquals("Plain", decryptedTexts.get(0));
+        assertEquals("Test", decryptedTexts.get(1));
+        assertNull(decryptedTexts.get(2));
+        assertEquals("", decryptedTexts.get(3));
+    }
+
+    @Test
+    public void encryptAndDecryptV2() {
+        String text = "123@DefaultPassword \u00e9";
+        String encryptedText = EncryptionUtil.encrypt(text, EncryptionUtil.CipherVersion.V2);
+        assertTrue(encryptedText.startsWith(EncryptionUtil.CIPHER_V2_VALUE_PREFIX));
+        assertTrue(EncryptionUtil.isEncrypted(encryptedText));
+        // A random IV is used for each value
+        assertFalse(encryptedText.equals(EncryptionUtil.encrypt(text, EncryptionUtil.CipherVersion.V2)));
+        assertEquals(text, EncryptionUtil.decrypt(encryptedText));
+        assertEquals(text, EncryptionUtil.decryptIfEncrypted(encryptedText));
+        // v1 values are still decrypted
+        assertEquals(text, EncryptionUtil.decryptIfEncrypted(EncryptionUtil.encrypt(text)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectTamperedV2Value() {
+        String encryptedText = EncryptionUtil.encrypt("Test", EncryptionUtil.CipherVersion.V2);
+        byte[] encrypted = Base64.getDecoder().decode(encryptedText.substring(
+                EncryptionUtil.CIPHER_V2_VALUE_PREFIX.length()));
+        encrypted[encrypted.length - 1] ^= 1;
+        EncryptionUtil.decrypt(EncryptionUtil.CIPHER_V2_VALUE_PREFIX
+                + new String(Base64.getEncoder().encode(encrypted), StandardCharsets.US_ASCII));
+    }
+
+}
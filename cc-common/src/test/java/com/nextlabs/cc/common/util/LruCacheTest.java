@@ -0,0 +1,43 @@
+package com.nextlabs.cc.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+/**
+ * Tests for LruCache.
+ */
+public class LruCacheTest {
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        LruCache<String, String> cache = new LruCache<>(3);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+        assertEquals("1", cache.get("a"));
+
+        cache.put("d", "4");
+
+        assertNull(cache.get("b"));
+        assertEquals(Arrays.asList("c", "a", "d"), cache.keys());
+        cache.get("c");
+        assertEquals(Arrays.asList("a", "d", "c"), cache.keys());
+    }
+
+    @Test
+    public void sizeIsBoundedWithConcurrentCallers() {
+        LruCache<Integer, Integer> cache = new LruCache<>(100);
+        IntStream.range(0, 100000).parallel().forEach(i -> {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 100);
+        });
+        assertEquals(100, cache.size());
+    }
+
+}
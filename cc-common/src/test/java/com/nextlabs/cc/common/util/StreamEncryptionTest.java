@@ -0,0 +1,272 @@
+package com.nextlabs.cc.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for the stream encryption of EncryptionUtil.
+ */
+public class StreamEncryptionTest {
+
+    private static final String HEAP_SIZE = "-Xmx16m";
+    private static final int HEADER_LENGTH = 24;
+
+    @BeforeClass
+    public static void createKeyFile() throws IOException {
+        if (System.getProperty(EncryptionUtil.KEY_FILE_PROPERTY) != null) {
+            return;
+        }
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        Path keyFile = Files.createTempFile("stream-encryption-test", ".key");
+        keyFile.toFile().deleteOnExit();
+        Files.write(keyFile, Base64.getEncoder().encode(key));
+        System.setProperty(EncryptionUtil.KEY_FILE_PROPERTY, keyFile.toString());
+    }
+
+    @Test
+    public void encryptAndDecrypt() throws IOException {
+        for (int size : new int[]{0, 1, 64 * 1024, 200 * 1024 + 7}) {
+            byte[] data = new byte[size];
+            new Random(size).nextBytes(data);
+            byte[] encrypted = encrypt(data);
+            assertArrayEquals(data, decrypt(encrypted));
+        }
+    }
+
+    @Test
+    public void encryptAndDecryptChannels() throws IOException {
+        byte[] data = new byte[100 * 1024];
+        new Random().nextBytes(data);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        EncryptionUtil.encrypt(Channels.newChannel(new ByteArrayInputStream(data)), Channels.newChannel(encrypted));
+        ByteArrayOutputStream decrypted = new ByteArrayOutputStream();
+        EncryptionUtil.decrypt(Channels.newChannel(new ByteArrayInputStream(encrypted.toByteArray())),
+                Channels.newChannel(decrypted));
+        assertArrayEquals(data, decrypted.toByteArray());
+    }
+
+    @Test
+    public void rejectTruncatedStream() throws IOException {
+        for (int size : new int[]{200 * 1024, 192 * 1024}) {
+            byte[] encrypted = encrypt(new byte[size]);
+            byte[] header = Arrays.copyOf(encrypted, HEADER_LENGTH);
+            List<byte[]> frames = readFrames(encrypted);
+            assertArrayEquals(new byte[size], decrypt(writeFrames(header, frames)));
+            // Remove the final frame, which leaves only whole chunks
+            assertInvalid(writeFrames(header, frames.subList(0, frames.size() - 1)));
+            byte[] truncated = new byte[encrypted.length - 10];
+            System.arraycopy(encrypted, 0, truncated, 0, truncated.length);
+            assertInvalid(truncated);
+        }
+    }
+
+    @Test
+    public void rejectReorderedFrames() throws IOException {
+        byte[] data = new byte[200 * 1024];
+        new Random().nextBytes(data);
+        byte[] encrypted = encrypt(data);
+        byte[] header = Arrays.copyOf(encrypted, HEADER_LENGTH);
+        List<byte[]> frames = readFrames(encrypted);
+        byte[] frame = frames.get(0);
+        frames.set(0, frames.get(1));
+        frames.set(1, frame);
+        assertInvalid(writeFrames(header, frames));
+        frames.remove(0);
+        assertInvalid(writeFrames(header, frames));
+    }
+
+    @Test
+    public void rejectModifiedHeaderAndFrames() throws IOException {
+        byte[] data = new byte[100 * 1024];
+        new Random().nextBytes(data);
+        byte[] encrypted = encrypt(data);
+        byte[] header = Arrays.copyOf(encrypted, HEADER_LENGTH);
+        List<byte[]> frames = readFrames(encrypted);
+        // Modified stream identifier
+        byte[] modifiedHeader = header.clone();
+        modifiedHeader[HEADER_LENGTH - 1] ^= 1;
+        assertInvalid(writeFrames(modifiedHeader, frames));
+        // Frame of another stream of the same data
+        List<byte[]> splicedFrames = new ArrayList<>(frames);
+        splicedFrames.set(0, readFrames(encrypt(data)).get(0));
+        assertInvalid(writeFrames(header, splicedFrames));
+        // Final chunk flag set on the first frame
+        List<byte[]> modifiedFrames = new ArrayList<>(frames);
+        byte[] modifiedFrame = frames.get(0).clone();
+        modifiedFrame[0] = 1;
+        modifiedFrames.set(0, modifiedFrame);
+        assertInvalid(writeFrames(header, modifiedFrames));
+        // Modified ciphertext
+        modifiedFrame = frames.get(1).clone();
+        modifiedFrame[modifiedFrame.length / 2] ^= 1;
+        modifiedFrames.set(0, frames.get(0));
+        modifiedFrames.set(1, modifiedFrame);
+        assertInvalid(writeFrames(header, modifiedFrames));
+    }
+
+    /**
+     * Stream a payload much larger than the heap of a separate JVM through the encryption and the decryption. The size
+     * can be changed with the "cc.encryption.stream.test.size" system property, such as 4g to stream a multi GB
+     * payload.
+     */
+    @Test
+    public void streamLargerThanHeap() throws IOException, InterruptedException {
+        String size = System.getProperty("cc.encryption.stream.test.size", "64m");
+        Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                HEAP_SIZE, String.format("-D%s=%s", EncryptionUtil.KEY_FILE_PROPERTY,
+                System.getProperty(EncryptionUtil.KEY_FILE_PROPERTY)), "-cp", System.getProperty("java.class.path"),
+                StreamEncryptionTest.class.getName(), size)
+                .inheritIO()
+                .start();
+        if (!process.waitFor(1, TimeUnit.HOURS)) {
+            process.destroyForcibly();
+            fail("Stream encryption did not complete");
+        }
+        assertEquals(0, process.exitValue());
+    }
+
+    /**
+     * Encrypt the given number of random bytes and decrypt the encrypted stream while it is being written, and exit
+     * with a non-zero status if the checksum of the decrypted data is different.
+     *
+     * @param args the number of bytes with an optional k, m or g suffix
+     */
+    public static void main(String[] args) throws Exception {
+        long size = parseSize(args[0]);
+        CheckedInputStream inputStream = new CheckedInputStream(new RandomInputStream(size), new CRC32());
+        PipedInputStream encryptedInputStream = new PipedInputStream(64 * 1024);
+        PipedOutputStream encryptedOutputStream = new PipedOutputStream(encryptedInputStream);
+        CompletableFuture<Void> encryption = CompletableFuture.runAsync(() -> {
+            try (OutputStream outputStream = encryptedOutputStream) {
+                EncryptionUtil.encrypt(inputStream, outputStream);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        CheckedOutputStream outputStream = new CheckedOutputStream(OutputStream.nullOutputStream(), new CRC32());
+        try (InputStream encryptedStream = encryptedInputStream) {
+            EncryptionUtil.decrypt(encryptedStream, outputStream);
+        }
+        encryption.join();
+        System.exit(inputStream.getChecksum().getValue() == outputStream.getChecksum().getValue() ? 0 : 1);
+    }
+
+    private static long parseSize(String size) {
+        String unit = size.substring(size.length() - 1).toLowerCase();
+        int shift = "k".equals(unit) ? 10 : "m".equals(unit) ? 20 : "g".equals(unit) ? 30 : 0;
+        return Long.parseLong(shift == 0 ? size : size.substring(0, size.length() - 1)) << shift;
+    }
+
+    private static byte[] encrypt(byte[] data) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        EncryptionUtil.encrypt(new ByteArrayInputStream(data), outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] encrypted) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        EncryptionUtil.decrypt(new ByteArrayInputStream(encrypted), outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private static void assertInvalid(byte[] encrypted) {
+        try {
+            decrypt(encrypted);
+            fail("Invalid encrypted stream is accepted");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static List<byte[]> readFrames(byte[] encrypted) throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        try (DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(encrypted))) {
+            inputStream.skipBytes(HEADER_LENGTH);
+            while (inputStream.available() > 0) {
+                byte[] frame = new byte[inputStream.readInt()];
+                inputStream.readFully(frame);
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] writeFrames(byte[] header, List<byte[]> frames) throws IOException {
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (DataOutputStream outputStream = new DataOutputStream(encrypted)) {
+            outputStream.write(header);
+            for (byte[] frame : frames) {
+                outputStream.writeInt(frame.length);
+                outputStream.write(frame);
+            }
+        }
+        return encrypted.toByteArray();
+    }
+
+    /**
+     * Input stream of pseudo random bytes of the given size.
+     */
+    private static class RandomInputStream extends InputStream {
+
+        private final Random random = new Random(0);
+        private long remaining;
+
+        RandomInputStream(long size) {
+            this.remaining = size;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return random.nextInt(256);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = (int) Math.min(length, remaining);
+            byte[] randomBytes = new byte[count];
+            random.nextBytes(randomBytes);
+            System.arraycopy(randomBytes, 0, bytes, offset, count);
+            remaining -= count;
+            return count;
+        }
+
+    }
+
+}
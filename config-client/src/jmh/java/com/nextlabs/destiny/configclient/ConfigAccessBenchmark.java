@@ -0,0 +1,69 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading configurations inline using ConfigClient.get() with reading through Config handles kept in
+ * fields.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConfigAccessBenchmark {
+
+    private static final int CONFIG_COUNT = 4000;
+    private static final String TIMEOUT_KEY = "benchmark.access.timeout";
+    private static final String ENABLED_KEY = "benchmark.access.enabled";
+
+    private Config timeout;
+    private Config enabled;
+
+    @Setup
+    public void setup() {
+        Properties properties = new Properties();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            properties.setProperty("benchmark.access." + i, String.valueOf(i));
+        }
+        properties.setProperty(TIMEOUT_KEY, "30000");
+        properties.setProperty(ENABLED_KEY, "true");
+        ConfigClient.update(properties);
+        timeout = ConfigClient.get(TIMEOUT_KEY, 5000);
+        enabled = ConfigClient.get(ENABLED_KEY, false);
+    }
+
+    @Benchmark
+    public int getInt() {
+        return ConfigClient.get(TIMEOUT_KEY, 5000).toInt();
+    }
+
+    @Benchmark
+    public int handleInt() {
+        return timeout.toInt();
+    }
+
+    @Benchmark
+    public boolean getBoolean() {
+        return ConfigClient.get(ENABLED_KEY, false).toBoolean();
+    }
+
+    @Benchmark
+    public boolean handleBoolean() {
+        return enabled.toBoolean();
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per request cost of reading a configuration and clearing the ThreadLocal values as done by the
+ * ThreadLocalClearingFilter. The cost should not grow with the number of configurations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadLocalClearingBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    private int configCount;
+
+    private Config config;
+
+    @Setup
+    public void setup() {
+        Properties properties = new Properties();
+        for (int i = 0; i < configCount; i++) {
+            properties.setProperty("benchmark.config." + i, String.valueOf(i));
+        }
+        ConfigClient.update(properties);
+        config = ConfigClient.get("benchmark.config.0");
+    }
+
+    @Benchmark
+    public String readAndClear() {
+        String value = config.toString();
+        ConfigClient.clear();
+        return value;
+    }
+
+}
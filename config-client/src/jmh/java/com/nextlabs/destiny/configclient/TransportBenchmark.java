@@ -0,0 +1,196 @@
+package com.nextlabs.destiny.configclient;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.SSLServerSocketFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.nextlabs.cc.common.http.HttpTransport;
+import com.nextlabs.cc.common.retry.RetryPolicy;
+
+/**
+ * Compares the latency of a configuration request using a new HttpURLConnection which is disconnected after each
+ * request with the pooled HttpTransport, against a local configuration service stub which compresses the response if
+ * gzip is accepted.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+    private static final int CONFIG_COUNT = 500;
+    private static final String URI = "application-default.properties";
+    private static final String KEY_STORE_PASSWORD = "benchmark";
+
+    private ServerSocket serverSocket;
+    private String configServiceUrl;
+    private HttpTransport transport;
+
+    @Setup
+    public void setup() throws IOException {
+        Properties properties = new Properties();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            properties.setProperty("benchmark.transport." + i, "value-" + i);
+        }
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        properties.store(content, null);
+        byte[] plainContent = content.toByteArray();
+        ByteArrayOutputStream compressedContent = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedContent)) {
+            gzipOutputStream.write(plainContent);
+        }
+        byte[] gzipContent = compressedContent.toByteArray();
+
+        serverSocket = createServerSocket();
+        Thread acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread handler = new Thread(() -> serve(socket, plainContent, gzipContent));
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    // Server socket closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        configServiceUrl = String.format("https://127.0.0.1:%d/config-service", serverSocket.getLocalPort());
+        transport = new HttpTransport(configServiceUrl, "config-client", "password",
+                RetryPolicy.fromProperties(new Properties(), ""), (attempt, delay, e) -> {
+        });
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * Create a TLS server socket with a self-signed certificate, which is also trusted by the clients, since the
+     * handshake is the main cost of a new connection to the configuration service.
+     */
+    private static ServerSocket createServerSocket() throws IOException {
+        Path keyStore = Files.createTempFile("transport-benchmark", ".p12");
+        Files.delete(keyStore);
+        keyStore.toFile().deleteOnExit();
+        try {
+            Process process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool")
+                    .toString(), "-genkeypair", "-alias", "config-service", "-keyalg", "RSA", "-keysize", "2048",
+                    "-dname", "CN=localhost", "-ext", "SAN=ip:127.0.0.1", "-validity", "1", "-storetype", "PKCS12",
+                    "-keystore", keyStore.toString(), "-storepass", KEY_STORE_PASSWORD)
+                    .inheritIO()
+                    .start();
+            if (process.waitFor() != 0) {
+                throw new IOException("Error in creating the key store");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while creating the key store", e);
+        }
+        System.setProperty("javax.net.ssl.keyStore", keyStore.toString());
+        System.setProperty("javax.net.ssl.keyStorePassword", KEY_STORE_PASSWORD);
+        System.setProperty("javax.net.ssl.keyStoreType", "PKCS12");
+        System.setProperty("javax.net.ssl.trustStore", keyStore.toString());
+        System.setProperty("javax.net.ssl.trustStorePassword", KEY_STORE_PASSWORD);
+        System.setProperty("javax.net.ssl.trustStoreType", "PKCS12");
+        return SSLServerSocketFactory.getDefault().createServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    /**
+     * Serve the configuration requests received on a connection until the client closes it. A minimal HTTP/1.1 server
+     * is used as the stub since the HttpServer of the JDK adds delays to requests on kept alive connections.
+     */
+    private static void serve(Socket socket, byte[] plainContent, byte[] gzipContent) {
+        try (Socket connection = socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(),
+                     StandardCharsets.ISO_8859_1));
+             OutputStream outputStream = connection.getOutputStream()) {
+            connection.setTcpNoDelay(true);
+            String requestLine;
+            while ((requestLine = reader.readLine()) != null) {
+                if (requestLine.isEmpty()) {
+                    continue;
+                }
+                boolean gzip = false;
+                boolean close = false;
+                String header;
+                while ((header = reader.readLine()) != null && !header.isEmpty()) {
+                    String name = header.substring(0, Math.max(0, header.indexOf(':'))).trim();
+                    if ("Accept-Encoding".equalsIgnoreCase(name)) {
+                        gzip = header.contains("gzip");
+                    } else if ("Connection".equalsIgnoreCase(name)) {
+                        close = header.toLowerCase().contains("close");
+                    }
+                }
+                byte[] body = gzip ? gzipContent : plainContent;
+                outputStream.write(String.format("HTTP/1.1 200 OK\r\nContent-Length: %d\r\n%s\r\n", body.length,
+                        gzip ? "Content-Encoding: gzip\r\n" : "").getBytes(StandardCharsets.ISO_8859_1));
+                outputStream.write(body);
+                outputStream.flush();
+                if (close) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // Connection closed by the client
+        }
+    }
+
+    @Benchmark
+    public byte[] connectionPerRequest() throws IOException {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(String.format("%s/%s", configServiceUrl, URI)).openConnection();
+            connection.setRequestMethod("GET");
+            connection.setRequestProperty("Authorization", String.format("Basic %s", Base64.getEncoder()
+                    .encodeToString("config-client:password".getBytes(StandardCharsets.UTF_8))));
+            try (InputStream inputStream = connection.getInputStream()) {
+                return inputStream.readAllBytes();
+            }
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    @Benchmark
+    public byte[] pooledTransport() throws IOException {
+        return transport.get(URI).getBody();
+    }
+
+}
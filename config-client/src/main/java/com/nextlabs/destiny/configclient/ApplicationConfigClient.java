@@ -0,0 +1,1028 @@
+package com.nextlabs.destiny.configclient;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nextlabs.cc.common.http.HttpTransport;
+import com.nextlabs.cc.common.metrics.MetricsRegistry;
+import com.nextlabs.cc.common.metrics.RefreshMetrics;
+import com.nextlabs.cc.common.retry.RetryPolicy;
+import com.nextlabs.cc.common.util.EncryptionUtil;
+import com.nextlabs.destiny.logmanager.LogManagerClient;
+
+/**
+ * The configuration client of an application. Each application has its own configurations, snapshots, change
+ * listeners and configuration refresher with its own refresh thread, while the HTTP transport to the configuration
+ * service, the ActiveMQ broker connection and the refreshes of the logger configurations and the secure stores are
+ * shared by the applications in the JVM, hence the applications deployed in the same container do not open their own
+ * connections. The instances are obtained with
+ * {@link ConfigClient#forApplication(String)} and the static methods of the ConfigClient use the default instance.
+ * <p>
+ * The init method should be called as soon as the application is initialized and before using the configurations.
+ * The configurations can be obtained using get() methods which returns a Config supplier.
+ * <p>
+ * The durations of the refresh stages, the payload sizes, the retries, the snapshot version and the number of keys are
+ * recorded in the {@link RefreshMetrics} of the application, which are registered in the {@link MetricsRegistry} as
+ * "config-client/&lt;application name&gt;" when the client is initialized.
+ */
+public class ApplicationConfigClient {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ApplicationConfigClient.class);
+    private static final String CONFIG_SERVICE_PROPERTY_PREFIX = "spring.cloud.config.";
+    private static final int STARTUP_THREADS = 4;
+    private final ConfigRegistry configRegistry = new ConfigRegistry(key -> new Config(this, key, null));
+    private final ThreadLocal<ConfigSnapshot> snapshotPin = ThreadLocal.withInitial(this::getSnapshot);
+    private final List<ChangeListenerRegistration> changeListeners = new CopyOnWriteArrayList<>();
+    private final ConfigReferenceResolver referenceResolver = new ConfigReferenceResolver();
+    private final RefreshMetrics metrics = new RefreshMetrics();
+    private final AtomicBoolean logManagerAcquired = new AtomicBoolean();
+
+    private volatile String applicationName;
+    private String configServiceUrl = "";
+    private String configServiceUsername = "";
+    private String configServicePassword = "";
+    private volatile ConfigRefresher configRefresher;
+    private volatile RetryPolicy retryPolicy = RetryPolicy.fromProperties(new Properties(),
+            CONFIG_SERVICE_PROPERTY_PREFIX);
+    private volatile HttpTransport transport;
+    private boolean snapshotEnabled;
+    private volatile ConfigSnapshot snapshot = ConfigSnapshot.EMPTY;
+    private long localConfigLastModified;
+    private ExecutorService changeNotifier;
+
+    ApplicationConfigClient(String applicationName) {
+        this.applicationName = applicationName;
+        metrics.addGauge("snapshot_version", () -> snapshot.getVersion());
+        metrics.addGauge("key_count", () -> getKeyMetrics().getKeyCount());
+        metrics.addGauge("retained_key_count", () -> getKeyMetrics().getRetainedKeyCount());
+        metrics.addGauge("tombstoned_key_count", () -> getKeyMetrics().getTombstonedKeyCount());
+        metrics.addGauge("call_count", () -> retryPolicy.getCallCount());
+        metrics.addGauge("retry_count", () -> retryPolicy.getRetryCount());
+        metrics.addGauge("call_failure_count", () -> retryPolicy.getFailureCount());
+    }
+
+    /**
+     * Initialize the configuration client of the application.
+     * <p>
+     * The configuration service is accessed using a retry policy created from the "spring.cloud.config.retry.*" and
+     * "spring.cloud.config.circuit-breaker.*" bootstrap properties, and the initialization fails if the configurations
+     * could not be obtained within the retry policy. Each attempt is bounded by the
+     * "spring.cloud.config.request-connect-timeout" and "spring.cloud.config.request-read-timeout" bootstrap
+     * properties in milliseconds.
+     * <p>
+     * If the "spring.cloud.config.snapshot.enabled" bootstrap property is true, the configurations received from the
+     * configuration service are stored in a snapshot file in the "server.config.path" directory. If a valid snapshot
+     * file is found, the configurations are loaded from it and the initialization returns without waiting for the
+     * configuration service, while the configurations and the logger configurations are refreshed in the background.
+     * The last applied logger configurations are applied from the cache of the log manager client if found. The
+     * snapshot is disabled by default.
+     *
+     * @throws IOException if an error occurred
+     * @see #initAsync()
+     */
+    public void init() throws IOException {
+        init(null);
+    }
+
+    /**
+     * Initialize the configuration client, replacing the application name with the given name if it is not empty.
+     */
+    void init(String applicationName) throws IOException {
+        try {
+            initAsync(applicationName).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Initialize the configuration client without blocking the calling thread. The configurations are obtained first as
+     * the other stages depend on them, then the logger configurations, the secure stores and the ActiveMQ broker
+     * connection of the configuration refresher are obtained concurrently.
+     * <p>
+     * The returned future completes when the configurations and the logger configurations are ready. The secure stores
+     * are not downloaded at startup unless the "secureStore.download.on.startup" configuration is explicitly set to
+     * true, in which case the future also waits for them. The broker connection is not required to complete the
+     * future. A startup timeline with the start time and the duration of each stage is logged and the startup threads
+     * are stopped when all the stages are completed.
+     *
+     * @return a future completed when the required stages are completed
+     * @see #init()
+     */
+    public CompletableFuture<Void> initAsync() {
+        return initAsync(null);
+    }
+
+    /**
+     * Initialize the configuration client without blocking the calling thread, replacing the application name with the
+     * given name if it is not empty.
+     */
+    CompletableFuture<Void> initAsync(String applicationName) {
+        StartupTimeline timeline = new StartupTimeline();
+        StartupTimeline.Stage bootstrapStage = timeline.start("bootstrap");
+        try {
+            bootstrap(applicationName);
+            bootstrapStage.end(false);
+        } catch (IOException | RuntimeException e) {
+            bootstrapStage.end(true);
+            LOGGER.info("Startup timeline: {}", timeline);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(STARTUP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "config-client-startup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<CompletableFuture<?>> backgroundStages = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> ready = runStage(timeline, "configurations", executor, () -> {
+            boolean loadedFromSnapshot = snapshotEnabled && loadSnapshot();
+            if (!loadedFromSnapshot) {
+                refresh();
+            }
+            return loadedFromSnapshot;
+        }).thenCompose(loadedFromSnapshot -> {
+            boolean enableLogManager = get("logger.manager.enabled", false).toBoolean();
+            boolean enableConfigRefresher = get("config.update.refresher.enabled", false).toBoolean();
+            boolean enableLoggerRefresher = get("logger.update.refresher.enabled", false).toBoolean();
+            boolean enableSecureStoreRefresher = get("secureStore.update.refresher.enabled", false).toBoolean();
+            Config downloadSecureStoreOnStartup = get("secureStore.download.on.startup");
+            boolean downloadSecureStore = !downloadSecureStoreOnStartup.isEmpty()
+                    && downloadSecureStoreOnStartup.toBoolean();
+
+            // Logger refresher will be enabled only if log manager is enabled.
+            enableLoggerRefresher = enableLogManager && enableLoggerRefresher;
+
+            if (loadedFromSnapshot) {
+                backgroundStages.add(runStage(timeline, "reconcile", executor, () -> {
+                    reconcile();
+                    return null;
+                }));
+            }
+
+            if (enableConfigRefresher || enableLoggerRefresher) {
+                ConfigRefresher refresher = new ConfigRefresher(this, enableConfigRefresher, enableLoggerRefresher,
+                        enableSecureStoreRefresher);
+                configRefresher = refresher;
+                backgroundStages.add(runStage(timeline, "broker", executor, () -> {
+                    refresher.run();
+                    return null;
+                }));
+            }
+
+            if (enableLogManager && logManagerAcquired.compareAndSet(false, true)) {
+                SharedClientResources.acquireLogManager();
+            }
+            CompletableFuture<Void> loggers = enableLogManager
+                    ? runStage(timeline, "loggers", executor, () -> {
+                        LogManagerClient.refresh(transport, loadedFromSnapshot);
+                        return null;
+                    }) : CompletableFuture.completedFuture(null);
+            CompletableFuture<Void> secureStores = downloadSecureStore
+                    ? runStage(timeline, "secure stores", executor, () -> {
+                        downloadSecureStore();
+                        return null;
+                    }) : CompletableFuture.completedFuture(null);
+            return CompletableFuture.allOf(loggers, secureStores);
+        });
+        ready.whenComplete((result, e) -> {
+            if (e == null) {
+                LOGGER.info("Configuration client ready in {} ms", timeline.getElapsedMillis());
+            } else {
+                LOGGER.error("Configuration client initialization failed in {} ms", timeline.getElapsedMillis());
+            }
+        });
+        // The background stages are all added before the required stages complete
+        ready.handle((result, e) -> null)
+                .thenCompose(result -> CompletableFuture.allOf(backgroundStages.toArray(new CompletableFuture<?>[0])))
+                .whenComplete((result, e) -> {
+                    try {
+                        LOGGER.info("Startup timeline: {}", timeline);
+                    } finally {
+                        executor.shutdown();
+                    }
+                });
+        return ready;
+    }
+
+    private void bootstrap(String applicationName) throws IOException {
+        if (applicationName != null && !applicationName.isEmpty()) {
+            this.applicationName = applicationName;
+        }
+
+        Properties bootstrapProperties = new Properties();
+        try (FileInputStream fileInputStream = new FileInputStream(
+                System.getProperty("spring.cloud.bootstrap.location"))) {
+            bootstrapProperties.load(fileInputStream);
+        }
+        configServiceUrl = bootstrapProperties.getProperty("spring.cloud.config.uri");
+        configServiceUsername = bootstrapProperties.getProperty("spring.cloud.config.username");
+        configServicePassword = bootstrapProperties.getProperty("spring.cloud.config.password");
+        retryPolicy = RetryPolicy.fromProperties(bootstrapProperties, CONFIG_SERVICE_PROPERTY_PREFIX);
+        snapshotEnabled = Boolean.parseBoolean(bootstrapProperties.getProperty(
+                CONFIG_SERVICE_PROPERTY_PREFIX + "snapshot.enabled", "false"));
+
+        // Enhance security, make sure communication happens in secured channel
+        if(configServiceUrl == null) {
+            throw new IllegalArgumentException("Invalid URL. URL cannot be null.");
+        }
+        transport = SharedClientResources.getTransport(configServiceUrl, configServiceUsername,
+                EncryptionUtil.decryptIfEncrypted(configServicePassword), retryPolicy,
+                Integer.parseInt(bootstrapProperties.getProperty(CONFIG_SERVICE_PROPERTY_PREFIX
+                        + "request-connect-timeout", String.valueOf(HttpTransport.DEFAULT_CONNECT_TIMEOUT_MILLIS))),
+                Integer.parseInt(bootstrapProperties.getProperty(CONFIG_SERVICE_PROPERTY_PREFIX
+                        + "request-read-timeout", String.valueOf(HttpTransport.DEFAULT_READ_TIMEOUT_MILLIS))));
+        retryPolicy = transport.getRetryPolicy();
+        if (!MetricsRegistry.register(getMetricsName(), metrics)) {
+            LOGGER.debug("Refresh metrics of {} are not registered in the MBean server", this.applicationName);
+        }
+    }
+
+    /**
+     * Run a startup stage using the given executor and record it in the startup timeline.
+     *
+     * @param timeline the startup timeline
+     * @param name     the stage name
+     * @param executor the executor used to run the stage
+     * @param stage    the stage to run
+     * @param <T>      the result type of the stage
+     * @return a future completed with the result of the stage
+     */
+    private <T> CompletableFuture<T> runStage(StartupTimeline timeline, String name, ExecutorService executor,
+                                                     StartupStage<T> stage) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            StartupTimeline.Stage timelineStage = timeline.start(name);
+            try {
+                T result = stage.run();
+                timelineStage.end(false);
+                future.complete(result);
+            } catch (Exception e) {
+                timelineStage.end(true);
+                LOGGER.error(String.format("Error in startup stage %s", name), e);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Refresh the configurations after the configurations are loaded from the snapshot.
+     */
+    private void reconcile() {
+        try {
+            refresh();
+        } catch (IOException e) {
+            LOGGER.error("Error in refreshing configurations loaded from the snapshot", e);
+        }
+    }
+
+    /**
+     * Return the application name.
+     *
+     * @return the application name
+     */
+    public String getApplicationName() {
+        return applicationName;
+    }
+
+    /**
+     * Returns the retry policy used to access the configuration service. The retry policy and its circuit breaker can
+     * be used to observe the state of the configuration service, and are shared by the applications which share the
+     * transport.
+     *
+     * @return the retry policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Returns the refresh metrics of the application.
+     *
+     * @return the refresh metrics
+     */
+    public RefreshMetrics getRefreshMetrics() {
+        return metrics;
+    }
+
+    private String getMetricsName() {
+        return "config-client/" + applicationName;
+    }
+
+    /**
+     * Access configuration service and return the configuration file content as an InputStream.
+     *
+     * @param uri URI which is relative to the configuration service uri defined in bootstrap.properties file
+     * @return an InputStream for configuration content or null if the content could not be obtained within the retry
+     * policy
+     */
+    public InputStream getContent(String uri) {
+        try {
+            return getContent(uri, false);
+        } catch (IOException e) {
+            LOGGER.error(String.format("Error in obtaining content %s from configuration service", uri), e);
+            return null;
+        }
+    }
+
+    /**
+     * Access configuration service and return the configuration file content as an InputStream if the content is
+     * modified since it was last obtained using this method. The ETag and Last-Modified validators returned by the
+     * configuration service are remembered and sent with the next request for the same URI.
+     *
+     * @param uri URI which is relative to the configuration service uri defined in bootstrap.properties file
+     * @return an InputStream for configuration content or null if the content is not modified
+     * @throws IOException if the content could not be obtained within the retry policy
+     */
+    InputStream getModifiedContent(String uri) throws IOException {
+        return getContent(uri, true);
+    }
+
+    private InputStream getContent(String uri, boolean conditional) throws IOException {
+        return getContent(transport, metrics, uri, conditional);
+    }
+
+    private static InputStream getContent(HttpTransport transport, RefreshMetrics metrics, String uri,
+                                          boolean conditional) throws IOException {
+        if (transport == null) {
+            throw new IOException("Configuration client is not initialized");
+        }
+        long start = System.nanoTime();
+        HttpTransport.Response response;
+        try {
+            response = transport.get(uri, conditional);
+        } catch (IOException e) {
+            metrics.recordFailure(RefreshMetrics.FETCH);
+            throw e;
+        }
+        metrics.recordStage(RefreshMetrics.FETCH, start);
+        if (response == null) {
+            LOGGER.debug("Content not modified: {}", uri);
+            return null;
+        }
+        metrics.recordPayload(response.getBody().length);
+        return response.getBodyAsStream();
+    }
+
+    /**
+     * Returns the transport used to access the configuration service. The transport is shared with the log manager
+     * client and the other applications using the same configuration service.
+     *
+     * @return the transport or null if the configuration client is not initialized
+     */
+    HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Perform configuration refresh of the application. This method should not be called outside the config-client.
+     * <p>
+     * The configurations are requested conditionally and the refresh is skipped if neither the configurations in the
+     * configuration service nor the local configuration file are modified since the last refresh. The validators of
+     * the configurations are forgotten if they cannot be applied, so the next refresh downloads them again.
+     *
+     * @throws IOException if an error occurred
+     */
+    public synchronized void refresh() throws IOException {
+        String uri = String.format("%s-default.properties", applicationName);
+        File localConfigFile = getLocalConfigFile();
+        long localLastModified = localConfigFile != null && localConfigFile.exists() ? localConfigFile.lastModified() : 0;
+        if (localLastModified != localConfigLastModified && transport != null) {
+            transport.removeValidators(uri);
+        }
+        Properties serviceProperties = new Properties();
+        Properties properties = new Properties();
+        try (InputStream inputStream = getModifiedContent(uri)) {
+            if (inputStream == null) {
+                LOGGER.info("Configurations are not modified");
+                return;
+            }
+            try {
+                long start = System.nanoTime();
+                try {
+                    serviceProperties.load(inputStream);
+                    properties.putAll(serviceProperties);
+                    overrideProperties(properties);
+                } catch (IOException | RuntimeException e) {
+                    metrics.recordFailure(RefreshMetrics.PARSE);
+                    throw e;
+                }
+                metrics.recordStage(RefreshMetrics.PARSE, start);
+                update(properties);
+            } catch (IOException | RuntimeException e) {
+                transport.removeValidators(uri);
+                throw e;
+            }
+        }
+        localConfigLastModified = localLastModified;
+        LOGGER.info("Configurations refreshed");
+        saveSnapshot(serviceProperties);
+    }
+
+    /**
+     * Load the configurations from the snapshot file.
+     *
+     * @return true if the configurations are loaded from the snapshot file
+     */
+    private boolean loadSnapshot() {
+        Path snapshotFile = getSnapshotFile();
+        if (snapshotFile == null || !Files.exists(snapshotFile)) {
+            return false;
+        }
+        try {
+            Properties properties = ConfigSnapshotFile.read(snapshotFile);
+            overrideProperties(properties);
+            update(properties);
+            LOGGER.info("Configurations loaded from snapshot: {}", snapshotFile);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Error in loading configurations from snapshot " + snapshotFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Store the configurations received from the configuration service in the snapshot file.
+     *
+     * @param properties the configurations received from the configuration service
+     */
+    private void saveSnapshot(Properties properties) {
+        Path snapshotFile = snapshotEnabled ? getSnapshotFile() : null;
+        if (snapshotFile == null) {
+            return;
+        }
+        try {
+            ConfigSnapshotFile.write(snapshotFile, properties);
+            LOGGER.debug("Configurations stored in snapshot: {}", snapshotFile);
+        } catch (IOException e) {
+            LOGGER.warn("Error in storing configurations in snapshot " + snapshotFile, e);
+        }
+    }
+
+    private Path getSnapshotFile() {
+        String configPath = System.getProperty("server.config.path");
+        return configPath != null ? Paths.get(configPath, String.format("%s-snapshot.dat", applicationName)) : null;
+    }
+
+    public void downloadSecureStore() throws IOException {
+        downloadSecureStore(transport, metrics);
+    }
+
+    /**
+     * Download the secure stores with the given transport and extract them to the certificates directory. This method
+     * does not depend on an application, so the secure stores refresh shared by the applications is bound to the
+     * transport instead of the application which created it.
+     *
+     * @param transport the transport to the configuration service
+     * @param metrics   the metrics to record the refresh stages
+     * @throws IOException if the secure stores could not be extracted
+     */
+    static void downloadSecureStore(HttpTransport transport, RefreshMetrics metrics) throws IOException {
+        String uri = "secure-store/download";
+        InputStream inputStream;
+        try {
+            inputStream = getContent(transport, metrics, uri, false);
+        } catch (IOException e) {
+            LOGGER.error(String.format("Error in obtaining content %s from configuration service", uri), e);
+            return;
+        }
+        long start = System.nanoTime();
+        try (ZipInputStream zipInputStream = new ZipInputStream(inputStream)) {
+            ZipEntry fileEntry = zipInputStream.getNextEntry();
+
+            while(fileEntry != null) {
+                byte[] buffer = new byte[1024];
+                int length;
+                File unzipFile = new File(String.join(File.separator,
+                        System.getProperty(ConfigClient.CONFIG_KEY_CC_HOME, ""), "server", "certificates",
+                        fileEntry.getName()));
+                try(FileOutputStream fileOutputStream = new FileOutputStream(unzipFile)) {
+                    while((length = zipInputStream.read(buffer)) > 0) {
+                        fileOutputStream.write(buffer, 0, length);
+                    }
+                    fileOutputStream.flush();
+                }
+                fileEntry = zipInputStream.getNextEntry();
+            }
+            zipInputStream.closeEntry();
+        } catch (IOException e) {
+            metrics.recordFailure(RefreshMetrics.SECURE_STORE_UNZIP);
+            throw e;
+        }
+        metrics.recordStage(RefreshMetrics.SECURE_STORE_UNZIP, start);
+
+        LOGGER.info("Secure stores downloaded");
+
+    }
+
+    /**
+     * Override properties from configurations found in local configuration file.
+     *
+     * @param properties the properties to override
+     */
+    private void overrideProperties(Properties properties) throws IOException {
+        File configFile = getLocalConfigFile();
+        if (configFile != null && configFile.exists()) {
+            Properties localProperties = new Properties();
+            try (FileInputStream fileInputStream = new FileInputStream(configFile)) {
+                localProperties.load(fileInputStream);
+            }
+            LOGGER.info("Configurations overridden from local file: {}", localProperties.entrySet());
+            properties.putAll(localProperties);
+        }
+    }
+
+    private File getLocalConfigFile() {
+        String configPath = System.getProperty("server.config.path");
+        return configPath != null
+                ? Paths.get(configPath, String.format("%s-local.properties", applicationName)).toFile() : null;
+    }
+
+    /**
+     * Update the configuration map. This method should not be called outside the config-client.
+     * <p>
+     * A complete new configuration snapshot is built from the given properties and then published with a single
+     * volatile write, hence readers never observe a partially updated configuration. The configurations which are not
+     * found in the given properties are removed. The values of unchanged configurations are reused and a new snapshot
+     * is published only if any configuration is added, changed or removed.
+     * <p>
+     * The encrypted values are kept encrypted and decrypted when they are first accessed. The encrypted values are
+     * compared by their ciphertext and an encrypted value found in the current snapshot is reused, hence an unchanged
+     * encrypted value is not decrypted again.
+     * <p>
+     * The ${name} placeholders of the plain values are replaced with the system properties or the values of the other
+     * plain configurations, so the references between the configurations are resolved once per refresh instead of on
+     * each read. Only the changed configurations and the configurations which depend on them are resolved again.
+     * <p>
+     * The keys and the short values are interned and the configurations with equal plain values share the same
+     * ConfigValue, so the values repeated across the configurations, such as true or false, are stored once.
+     * <p>
+     * The configurations removed from the properties are tombstoned and no longer strongly held after a few refreshes,
+     * so they are dropped when the application does not use them.
+     *
+     * @param properties the configuration value source
+     */
+    public synchronized void update(Properties properties) {
+        Map<String, ConfigValue> currentValues = snapshot.getValues();
+        Map<String, ConfigValue> currentEncryptedValues = new HashMap<>();
+        Map<String, ConfigValue> sharedValues = new HashMap<>();
+        for (ConfigValue currentValue : currentValues.values()) {
+            if (currentValue.isEncrypted()) {
+                currentEncryptedValues.put(currentValue.getSource(), currentValue);
+            } else {
+                sharedValues.put(currentValue.getSource(), currentValue);
+            }
+        }
+        Map<String, ConfigValue> values = new HashMap<>();
+        Map<String, String> plainValues = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+            Config config = get(ConfigStrings.dedupe(entry.getKey().toString()));
+            if (entry.getValue() != null) {
+                String value = entry.getValue().toString();
+                if (EncryptionUtil.isEncrypted(value)) {
+                    ConfigValue configValue = currentEncryptedValues.get(value);
+                    if (configValue == null) {
+                        configValue = ConfigValue.encrypted(value, this::decryptValue);
+                    }
+                    values.put(config.getKey(), configValue);
+                } else {
+                    plainValues.put(config.getKey(), ConfigStrings.dedupe(value));
+                }
+            }
+        }
+        long start = System.nanoTime();
+        Map<String, String> resolvedValues = referenceResolver.resolve(plainValues);
+        metrics.recordStage(RefreshMetrics.INTERPOLATE, start);
+        for (Map.Entry<String, String> entry : resolvedValues.entrySet()) {
+            Config config = get(entry.getKey());
+            String value = entry.getValue();
+            ConfigValue configValue = currentValues.get(config.getKey());
+            if (configValue == null || configValue.isEncrypted() || !value.equals(configValue.getSource())) {
+                configValue = sharedValues.computeIfAbsent(value, ConfigValue::new);
+                if (!configValue.hasNumberTypesOf(config.getDefaultValue())) {
+                    LOGGER.warn("Configuration {} is not a valid number and the default value {} will be used",
+                            config.getKey(), config.getDefaultValue().toStringValue());
+                }
+            }
+            values.put(config.getKey(), configValue);
+        }
+        addDefaultConfigurations(values);
+        start = System.nanoTime();
+        publish(values);
+        metrics.recordStage(RefreshMetrics.PUBLISH, start);
+        configRegistry.refreshed();
+    }
+
+    /**
+     * Decrypt and interpolate an encrypted configuration value.
+     *
+     * @param value the encrypted value with the cipher prefix
+     * @return the decrypted value
+     */
+    private String decryptValue(String value) {
+        long start = System.nanoTime();
+        String decryptedValue;
+        try {
+            decryptedValue = EncryptionUtil.decryptIfEncryptedWithoutCache(value);
+        } catch (RuntimeException e) {
+            metrics.recordFailure(RefreshMetrics.DECRYPT);
+            throw e;
+        }
+        metrics.recordStage(RefreshMetrics.DECRYPT, start);
+        return getInterpolatedValue(decryptedValue);
+    }
+
+    /**
+     * Publish a new configuration snapshot with the given configuration value.
+     *
+     * @param key   the configuration key
+     * @param value the configuration value
+     */
+    synchronized void setValue(String key, ConfigValue value) {
+        Map<String, ConfigValue> values = new HashMap<>(snapshot.getValues());
+        values.put(key, value);
+        publish(values);
+    }
+
+    /**
+     * Publish a new configuration snapshot with the given values if they differ from the current snapshot and notify
+     * the change listeners of the matching configurations. The values are compared by their sources, so the encrypted
+     * values are not decrypted for the comparison, and the decrypted values of the replaced encrypted values are
+     * cleared.
+     *
+     * @param values the configuration values of the new snapshot
+     */
+    private void publish(Map<String, ConfigValue> values) {
+        Map<String, ConfigValue> currentValues = snapshot.getValues();
+        Set<String> addedKeys = new HashSet<>();
+        Set<String> changedKeys = new HashSet<>();
+        for (Map.Entry<String, ConfigValue> entry : values.entrySet()) {
+            ConfigValue currentValue = currentValues.get(entry.getKey());
+            if (currentValue == null) {
+                addedKeys.add(entry.getKey());
+            } else if (currentValue.isEncrypted() == entry.getValue().isEncrypted()
+                    && Objects.equals(currentValue.getSource(), entry.getValue().getSource())) {
+                entry.setValue(currentValue);
+            } else {
+                changedKeys.add(entry.getKey());
+            }
+        }
+        Set<String> removedKeys = new HashSet<>(currentValues.keySet());
+        removedKeys.removeAll(values.keySet());
+        if (addedKeys.isEmpty() && changedKeys.isEmpty() && removedKeys.isEmpty()) {
+            LOGGER.debug("No configuration changes found");
+            return;
+        }
+        for (String key : addedKeys) {
+            configRegistry.retain(key);
+        }
+        for (String key : removedKeys) {
+            configRegistry.tombstone(key);
+        }
+        snapshot = new ConfigSnapshot(snapshot.getVersion() + 1, values, configRegistry::getConfigKey);
+        clearReplacedValues(currentValues, values);
+        LOGGER.debug("Configuration snapshot {} published: added={}, changed={}, removed={}", snapshot.getVersion(),
+                addedKeys.size(), changedKeys.size(), removedKeys.size());
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Configuration snapshot footprint: {}", snapshot.getFootprint());
+        }
+        notifyChangeListeners(new ConfigChangeEvent(snapshot, addedKeys, changedKeys, removedKeys));
+    }
+
+    private void clearReplacedValues(Map<String, ConfigValue> currentValues, Map<String, ConfigValue> values) {
+        Set<ConfigValue> retainedValues = Collections.newSetFromMap(new IdentityHashMap<>());
+        retainedValues.addAll(values.values());
+        for (ConfigValue currentValue : currentValues.values()) {
+            if (currentValue.isEncrypted() && !retainedValues.contains(currentValue)) {
+                currentValue.clear();
+            }
+        }
+    }
+
+    private void notifyChangeListeners(ConfigChangeEvent event) {
+        for (ChangeListenerRegistration registration : changeListeners) {
+            ConfigChangeEvent listenerEvent = event.filter(registration::matches);
+            if (!listenerEvent.isEmpty()) {
+                getChangeNotifier().execute(() -> {
+                    try {
+                        registration.listener.onChange(listenerEvent);
+                    } catch (Exception e) {
+                        LOGGER.error("Error in notifying configuration changes", e);
+                    }
+                });
+            }
+        }
+    }
+
+    private synchronized ExecutorService getChangeNotifier() {
+        if (changeNotifier == null) {
+            changeNotifier = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "config-change-notifier");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return changeNotifier;
+    }
+
+    /**
+     * Register a listener to be notified when the configuration with the given key is added, changed or removed. The
+     * listeners are notified on a dedicated thread in the order the changes are published.
+     *
+     * @param key      the configuration key
+     * @param listener the listener to notify
+     */
+    public void addChangeListener(String key, ConfigChangeListener listener) {
+        changeListeners.add(new ChangeListenerRegistration(key, false, listener));
+    }
+
+    /**
+     * Register a listener to be notified when configurations with keys starting with the given prefix are added,
+     * changed or removed. The listeners are notified on a dedicated thread in the order the changes are published.
+     *
+     * @param prefix   the configuration key prefix
+     * @param listener the listener to notify
+     */
+    public void addPrefixChangeListener(String prefix, ConfigChangeListener listener) {
+        changeListeners.add(new ChangeListenerRegistration(prefix, true, listener));
+    }
+
+    /**
+     * Remove all the registrations of the given listener.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeChangeListener(ConfigChangeListener listener) {
+        changeListeners.removeIf(registration -> registration.listener == listener);
+    }
+
+    private String getInterpolatedValue(String value) {
+        return Interpolator.interpolate(value, System::getProperty);
+    }
+
+    private void addDefaultConfigurations(Map<String, ConfigValue> values) {
+        if (!values.containsKey(ConfigClient.CONFIG_KEY_CC_HOME)) {
+            get(ConfigClient.CONFIG_KEY_CC_HOME);
+            values.put(ConfigClient.CONFIG_KEY_CC_HOME,
+                    new ConfigValue(System.getProperty(ConfigClient.CONFIG_KEY_CC_HOME, "")));
+        }
+
+        if (!values.containsKey(ConfigClient.CONFIG_KEY_SERVER_HOSTNAME)) {
+            get(ConfigClient.CONFIG_KEY_SERVER_HOSTNAME);
+            values.put(ConfigClient.CONFIG_KEY_SERVER_HOSTNAME,
+                    new ConfigValue(System.getProperty(ConfigClient.CONFIG_KEY_SERVER_HOSTNAME, "")));
+        }
+    }
+
+    /**
+     * Returns the ConfigKey with the dense slot assigned to the given configuration key. A slot is assigned when a key
+     * is first used and does not change while the key is used by a configuration object or a snapshot, so the
+     * configuration snapshots store their values in arrays indexed by these slots.
+     *
+     * @param key the configuration key
+     * @return the ConfigKey of the configuration key
+     */
+    ConfigKey getConfigKey(String key) {
+        return configRegistry.getConfigKey(key);
+    }
+
+    /**
+     * Returns the configuration object for the given key. If the configuration object not exists, a new
+     * configuration will be added with null value.
+     *
+     * @param key the configuration key
+     * @return the configuration object
+     */
+    public Config get(String key) {
+        return get(key, null);
+    }
+
+    /**
+     * Returns the configuration object for the given key. If the configuration object does not exists, a new
+     * configuration will be created with the value as the given String value.
+     * <p>
+     * The returned configuration object is a stable handle for the key and can be kept in a field. Reading a value
+     * through the handle is a single array access on the configuration snapshot, while this method requires a hash
+     * lookup on every call. A configuration which is not received from the configuration service is only weakly held
+     * by the ConfigClient, so its default value is kept while the application holds the configuration object.
+     *
+     * @param key          the configuration key
+     * @param defaultValue default value of the configuration
+     * @return the configuration object
+     */
+    public Config get(String key, String defaultValue) {
+        return configRegistry.getOrCreate(key, configKey -> new Config(this, configKey, defaultValue));
+    }
+
+    /**
+     * If configuration refresher or logger refresher is enabled, it is important to call stop at the end of the
+     * application to properly release the ActiveMQ connection, which is closed when no other application uses it. The
+     * refresh metrics of the application are unregistered, and the log manager client is closed if no other
+     * application uses it.
+     */
+    public void close() {
+        MetricsRegistry.unregister(getMetricsName());
+        ConfigRefresher refresher = configRefresher;
+        if (refresher != null) {
+            configRefresher = null;
+            refresher.close();
+        }
+        if (logManagerAcquired.compareAndSet(true, false)) {
+            SharedClientResources.releaseLogManager();
+        }
+        synchronized (this) {
+            if (changeNotifier != null) {
+                changeNotifier.shutdown();
+                changeNotifier = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the configuration object for the given key. If the configuration object does not exists, a new
+     * configuration will be created with the value as the given long value.
+     *
+     * @param key          the configuration key
+     * @param defaultValue default value of the configuration
+     * @return the configuration object
+     */
+    public Config get(String key, long defaultValue) {
+        return getTyped(key, String.valueOf(defaultValue));
+    }
+
+    /**
+     * Returns the configuration object for the given key. If the configuration object does not exists, a new
+     * configuration will be created with the value as the given int value.
+     *
+     * @param key          the configuration key
+     * @param defaultValue default value of the configuration
+     * @return the configuration object
+     */
+    public Config get(String key, int defaultValue) {
+        return getTyped(key, String.valueOf(defaultValue));
+    }
+
+    /**
+     * Returns the configuration object for the given key. If the configuration object does not exists, a new
+     * configuration will be created with the value as the given double value.
+     *
+     * @param key          the configuration key
+     * @param defaultValue default value of the configuration
+     * @return the configuration object
+     */
+    public Config get(String key, double defaultValue) {
+        return getTyped(key, String.valueOf(defaultValue));
+    }
+
+    /**
+     * Returns the configuration object for the given key. If the configuration object does not exists, a new
+     * configuration will be created with the value as the given boolean value.
+     *
+     * @param key          the configuration key
+     * @param defaultValue default value of the configuration
+     * @return the configuration object
+     */
+    public Config get(String key, boolean defaultValue) {
+        return getTyped(key, String.valueOf(defaultValue));
+    }
+
+    /**
+     * Returns the configuration object for the given key and register the given typed default value for the key if a
+     * default value is not registered, such as for a configuration created by a refresh.
+     */
+    private Config getTyped(String key, String defaultValue) {
+        Config config = configRegistry.get(key);
+        if (config == null) {
+            return get(key, defaultValue);
+        }
+        ConfigValue typedDefaultValue = new ConfigValue(defaultValue);
+        if (config.getConfigKey().setDefaultValueIfAbsent(typedDefaultValue)) {
+            ConfigValue configValue = snapshot.getValue(key);
+            if (configValue != null && !configValue.isEncrypted() && !configValue.hasNumberTypesOf(typedDefaultValue)) {
+                LOGGER.warn("Configuration {} is not a valid number and the default value {} will be used", key,
+                        defaultValue);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Returns all configurations matching with the given prefix. The configurations are found with a range query on a
+     * sorted key index and the matching keys are cached until a configuration is added or removed. The returned list
+     * is not cached, so it does not keep the unused configurations from being garbage collected.
+     *
+     * @param prefix prefix to filter the configurations
+     * @return the matching configurations as an unmodifiable List in key order
+     */
+    public List<Config> getAll(String prefix) {
+        return configRegistry.getAll(prefix);
+    }
+
+    /**
+     * Returns all configurations.
+     *
+     * @return all configurations as a List
+     */
+    public List<Config> getAll() {
+        return getAll(null);
+    }
+
+    /**
+     * Returns the metrics of the configuration keys, such as the number of keys and the number of evicted keys.
+     *
+     * @return the configuration key metrics
+     */
+    public ConfigKeyMetrics getKeyMetrics() {
+        return configRegistry.getMetrics();
+    }
+
+    /**
+     * Returns the latest published configuration snapshot.
+     *
+     * @return the latest configuration snapshot
+     */
+    public ConfigSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the configuration snapshot pinned to the current thread. The latest snapshot is pinned when it is first
+     * accessed by the thread and kept until the ThreadLocal values are cleared.
+     *
+     * @return the configuration snapshot pinned to the current thread
+     */
+    ConfigSnapshot getPinnedSnapshot() {
+        return snapshotPin.get();
+    }
+
+    /**
+     * Clear ThreadLocal values. The ThreadLocal entry of the current thread is removed, so a pooled thread does not
+     * keep the pinned snapshot or the class loader of the application, and the next ThreadLocal access will pin the
+     * latest configuration snapshot. This is a constant time operation which does not depend on the number of
+     * configurations.
+     */
+    public void clear() {
+        snapshotPin.remove();
+    }
+
+    /**
+     * A startup stage run by {@link #initAsync(String)}.
+     */
+    @FunctionalInterface
+    private interface StartupStage<T> {
+
+        T run() throws Exception;
+
+    }
+
+    private static final class ChangeListenerRegistration {
+
+        private final String key;
+        private final boolean prefix;
+        private final ConfigChangeListener listener;
+
+        private ChangeListenerRegistration(String key, boolean prefix, ConfigChangeListener listener) {
+            this.key = key;
+            this.prefix = prefix;
+            this.listener = listener;
+        }
+
+        private boolean matches(String configKey) {
+            return prefix ? configKey.startsWith(key) : configKey.equals(key);
+        }
+
+    }
+
+}
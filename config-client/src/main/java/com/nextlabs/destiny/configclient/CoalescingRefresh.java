@@ -0,0 +1,172 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesce refresh requests received with update messages. At most one refresh is in flight and at most one refresh
+ * is queued while a refresh is in flight, so a burst of update messages results in at most two refreshes. A refresh
+ * starts after the debounce window and the delay given by the refresh scheduling policy, and all the requests
+ * received before the refresh starts are merged into the refresh.
+ */
+public class CoalescingRefresh {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoalescingRefresh.class);
+
+    private final String name;
+    private final RefreshAction action;
+    private final ScheduledExecutorService executor;
+    private final long debounceMillis;
+    private final RefreshSchedulingPolicy schedulingPolicy;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong mergedCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private State state = State.IDLE;
+
+    /**
+     * Creates a new coalescing refresh.
+     *
+     * @param name           the name of the refresh used in logs
+     * @param action         the refresh to perform
+     * @param executor       the executor used to perform the refresh
+     * @param debounceMillis the time in milliseconds to wait for more requests before starting a refresh
+     */
+    public CoalescingRefresh(String name, RefreshAction action, ScheduledExecutorService executor,
+                             long debounceMillis) {
+        this(name, action, executor, debounceMillis, RefreshSchedulingPolicy.IMMEDIATE);
+    }
+
+    /**
+     * Creates a new coalescing refresh.
+     *
+     * @param name             the name of the refresh used in logs
+     * @param action           the refresh to perform
+     * @param executor         the executor used to perform the refresh
+     * @param debounceMillis   the time in milliseconds to wait for more requests before starting a refresh
+     * @param schedulingPolicy the policy giving the additional delay before starting a refresh
+     */
+    public CoalescingRefresh(String name, RefreshAction action, ScheduledExecutorService executor,
+                             long debounceMillis, RefreshSchedulingPolicy schedulingPolicy) {
+        this.name = name;
+        this.action = action;
+        this.executor = executor;
+        this.debounceMillis = Math.max(0, debounceMillis);
+        this.schedulingPolicy = schedulingPolicy;
+    }
+
+    /**
+     * Request a refresh. The request is merged with a refresh which is already scheduled and not started.
+     */
+    public void request() {
+        requestCount.incrementAndGet();
+        synchronized (this) {
+            switch (state) {
+                case IDLE:
+                    state = State.SCHEDULED;
+                    schedule();
+                    break;
+                case RUNNING:
+                    state = State.RUNNING_QUEUED;
+                    break;
+                default:
+                    mergedCount.incrementAndGet();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Schedule a refresh. Should be called while holding the lock. The refresh is dropped if the executor is shut down,
+     * which happens when the refresher is closed.
+     */
+    private void schedule() {
+        try {
+            executor.schedule(this::refresh, debounceMillis + Math.max(0, schedulingPolicy.getDelay()),
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            state = State.IDLE;
+            LOGGER.debug("Refresh of {} is not scheduled as the executor is shut down", name);
+        }
+    }
+
+    private void refresh() {
+        synchronized (this) {
+            state = State.RUNNING;
+        }
+        try {
+            refreshCount.incrementAndGet();
+            action.refresh();
+        } catch (Exception e) {
+            failureCount.incrementAndGet();
+            LOGGER.error(String.format("Error in refreshing %s", name), e);
+        } finally {
+            synchronized (this) {
+                if (state == State.RUNNING_QUEUED) {
+                    state = State.SCHEDULED;
+                    schedule();
+                } else {
+                    state = State.IDLE;
+                }
+            }
+        }
+        LOGGER.info("Refresh of {} completed: requests={}, refreshes={}, merged={}", name, requestCount.get(),
+                refreshCount.get(), mergedCount.get());
+    }
+
+    /**
+     * Returns the number of refresh requests received.
+     *
+     * @return the number of refresh requests
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the number of refresh requests merged into another refresh.
+     *
+     * @return the number of merged refresh requests
+     */
+    public long getMergedCount() {
+        return mergedCount.get();
+    }
+
+    /**
+     * Returns the number of refreshes performed.
+     *
+     * @return the number of refreshes
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * Returns the number of refreshes failed.
+     *
+     * @return the number of failed refreshes
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * Refresh to perform.
+     */
+    @FunctionalInterface
+    public interface RefreshAction {
+
+        void refresh() throws Exception;
+
+    }
+
+    private enum State {
+        IDLE, SCHEDULED, RUNNING, RUNNING_QUEUED
+    }
+
+}
@@ -4,15 +4,30 @@ package com.nextlabs.destiny.configclient;
  * Config object wrap the value of a configuration. A ThreadLocal value of the configuration will
  * be provided when toTYPE methods are used without arguments. If it is required to access the non thread local value
  * of the configuration, the toTYPE(false) methods should be used.
+ * <p>
+ * The ThreadLocal value is read from the ConfigSnapshot pinned to the current thread by the configuration client of
+ * its application, so all the configurations read by a thread belong to the same snapshot until the ThreadLocal values
+ * are cleared. The non ThreadLocal value is read from the latest published snapshot.
+ * <p>
+ * The typed values are parsed once when a value is updated. If an updated value cannot be parsed as the type of the
+ * default value registered for the key, the typed methods return the default value. The default value is registered
+ * for the key rather than for the configuration object, so it is used even if the configuration was first created by
+ * a refresh.
+ * <p>
+ * A configuration created with the public constructors is a standalone value holder, which is not registered in a
+ * configuration client. Its value is only changed with {@link #setValue(String)} and is not visible to other
+ * configuration objects. The configuration objects obtained from a configuration client read the snapshots of the
+ * client.
  *
  * @author Sachindra Dasun
  */
 public class Config {
 
     private String key;
-    private String value;
-
-    private ThreadLocal<String> threadLocalValue = ThreadLocal.withInitial(() -> value);
+    private final ApplicationConfigClient client;
+    private final ConfigKey configKey;
+    private final ConfigValue defaultValue;
+    private volatile ConfigValue value;
 
     /**
      * Creates a new configuration with the given key and null value.
@@ -20,32 +35,59 @@ public class Config {
      * @param key the configuration key
      */
     public Config(String key) {
-        this.key = key;
+        this(key, null);
     }
 
     /**
-     * Creates a new configuration with the given key and value.
+     * Creates a new standalone configuration with the given key and value.
      *
      * @param key   the configuration key
      * @param value the configuration value
      */
     public Config(String key, String value) {
         this.key = key;
-        this.value = value;
+        this.client = null;
+        this.configKey = null;
+        this.defaultValue = value == null ? ConfigValue.NULL : new ConfigValue(value);
+        this.value = defaultValue;
+    }
+
+    /**
+     * Creates a new configuration of the given application with the given key and value.
+     *
+     * @param client the configuration client of the application
+     * @param key    the configuration key
+     * @param value  the configuration value
+     */
+    Config(ApplicationConfigClient client, String key, String value) {
+        this.key = key;
+        this.client = client;
+        this.configKey = client.getConfigKey(key);
+        this.defaultValue = value == null ? ConfigValue.NULL : new ConfigValue(value);
+        configKey.setDefaultValueIfAbsent(defaultValue);
     }
 
     /**
-     * Sets the configuration value.
+     * Sets the configuration value. The value of a standalone configuration is replaced. For a configuration obtained
+     * from a configuration client, a new configuration snapshot with the given value is published, and the value is
+     * replaced by the value of the configuration service or removed on the next refresh.
      *
      * @param value the new value
      */
     public void setValue(String value) {
-        this.value = value;
+        ConfigValue configValue = value == null ? ConfigValue.NULL : new ConfigValue(value);
+        if (client == null) {
+            this.value = configValue;
+        } else {
+            client.setValue(key, configValue);
+        }
     }
 
     /**
      * Returns the ThreadLocal value of the configuration as a String after interpolating with given
-     * configurations.
+     * configurations. The references to other configurations received from the configuration service are resolved
+     * when the configurations are refreshed, hence the value is returned as it is unless it still has placeholders,
+     * such as references to encrypted configurations.
      *
      * @param configs the configurations to interpolate
      * @return the configuration value as a String value
@@ -63,14 +105,17 @@ public class Config {
      */
     public String toString(boolean threadLocal, Config... configs) {
         String configValue = toString(threadLocal);
-        if (configs != null) {
+        if (configs == null || configs.length == 0 || configValue == null || !configValue.contains("${")) {
+            return configValue;
+        }
+        return Interpolator.interpolate(configValue, name -> {
             for (Config config : configs) {
-                if (!config.isEmpty(threadLocal)) {
-                    configValue = configValue.replace(String.format("${%s}", config.getKey()), config.toString(threadLocal));
+                if (config.getKey().equals(name) && !config.isEmpty(threadLocal)) {
+                    return config.toString(threadLocal);
                 }
             }
-        }
-        return configValue;
+            return null;
+        });
     }
 
     /**
@@ -80,7 +125,7 @@ public class Config {
      * @return the configuration value as a String value
      */
     public String toString(boolean threadLocal) {
-        return threadLocal ? threadLocalValue.get() : value;
+        return getValue(threadLocal).toStringValue();
     }
 
     /**
@@ -108,7 +153,15 @@ public class Config {
      * @return the configuration value as a double value
      */
     public double toDouble(boolean threadLocal) {
-        return Double.parseDouble(threadLocal ? threadLocalValue.get() : value);
+        ConfigValue configValue = getValue(threadLocal);
+        if (configValue.isDouble()) {
+            return configValue.toDouble();
+        }
+        ConfigValue keyDefaultValue = getDefaultValue();
+        if (keyDefaultValue.isDouble()) {
+            return keyDefaultValue.toDouble();
+        }
+        throw new NumberFormatException(String.format("Configuration %s is not a double value", key));
     }
 
     /**
@@ -117,7 +170,7 @@ public class Config {
      * @return the configuration value as a double value
      */
     public double toDouble() {
-        return toInt(true);
+        return toDouble(true);
     }
 
     /**
@@ -127,7 +180,15 @@ public class Config {
      * @return the configuration value as an int value
      */
     public int toInt(boolean threadLocal) {
-        return Integer.parseInt(threadLocal ? threadLocalValue.get() : value);
+        ConfigValue configValue = getValue(threadLocal);
+        if (configValue.isInt()) {
+            return configValue.toInt();
+        }
+        ConfigValue keyDefaultValue = getDefaultValue();
+        if (keyDefaultValue.isInt()) {
+            return keyDefaultValue.toInt();
+        }
+        throw new NumberFormatException(String.format("Configuration %s is not an int value", key));
     }
 
     /**
@@ -155,7 +216,15 @@ public class Config {
      * @return the configuration value as a long value
      */
     public long toLong(boolean threadLocal) {
-        return Long.parseLong(threadLocal ? threadLocalValue.get() : value);
+        ConfigValue configValue = getValue(threadLocal);
+        if (configValue.isLong()) {
+            return configValue.toLong();
+        }
+        ConfigValue keyDefaultValue = getDefaultValue();
+        if (keyDefaultValue.isLong()) {
+            return keyDefaultValue.toLong();
+        }
+        throw new NumberFormatException(String.format("Configuration %s is not a long value", key));
     }
 
     /**
@@ -174,7 +243,7 @@ public class Config {
      * @return the configuration value as a boolean value
      */
     public boolean toBoolean(boolean threadLocal) {
-        return Boolean.parseBoolean(threadLocal ? threadLocalValue.get() : value);
+        return getValue(threadLocal).toBoolean();
     }
 
     /**
@@ -193,15 +262,37 @@ public class Config {
      * @return true if the configuration value is empty
      */
     public boolean isEmpty(boolean threadLocal) {
-        String configValue = threadLocal ? threadLocalValue.get() : value;
-        return configValue == null || configValue.isEmpty();
+        return getValue(threadLocal).isEmpty();
+    }
+
+    ConfigValue getDefaultValue() {
+        return configKey != null ? configKey.getDefaultValue() : defaultValue;
+    }
+
+    ConfigKey getConfigKey() {
+        return configKey;
+    }
+
+    private ConfigValue getValue(boolean threadLocal) {
+        if (client == null) {
+            return value;
+        }
+        ConfigValue snapshotValue = (threadLocal ? client.getPinnedSnapshot() : client.getSnapshot())
+                .getValue(configKey);
+        return snapshotValue != null ? snapshotValue : defaultValue;
     }
 
     /**
-     * Clear ThreadLocal value.
+     * Clear ThreadLocal value. The ThreadLocal values are pinned per thread rather than per configuration, hence this
+     * clears the ThreadLocal values of all the configurations.
+     *
+     * @deprecated use {@link ApplicationConfigClient#clear()}
      */
+    @Deprecated
     public void clear() {
-        threadLocalValue.remove();
+        if (client != null) {
+            client.clear();
+        }
     }
 
 }
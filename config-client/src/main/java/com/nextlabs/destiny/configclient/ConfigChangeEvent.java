@@ -0,0 +1,94 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Describes the configuration keys added, changed and removed when a new configuration snapshot is published. The
+ * values can be obtained from the snapshot the event belongs to.
+ */
+public final class ConfigChangeEvent {
+
+    private final ConfigSnapshot snapshot;
+    private final Set<String> addedKeys;
+    private final Set<String> changedKeys;
+    private final Set<String> removedKeys;
+
+    ConfigChangeEvent(ConfigSnapshot snapshot, Set<String> addedKeys, Set<String> changedKeys,
+                      Set<String> removedKeys) {
+        this.snapshot = snapshot;
+        this.addedKeys = Collections.unmodifiableSet(addedKeys);
+        this.changedKeys = Collections.unmodifiableSet(changedKeys);
+        this.removedKeys = Collections.unmodifiableSet(removedKeys);
+    }
+
+    /**
+     * Returns the configuration snapshot published with these changes.
+     *
+     * @return the configuration snapshot
+     */
+    public ConfigSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the keys of the configurations added.
+     *
+     * @return the added configuration keys
+     */
+    public Set<String> getAddedKeys() {
+        return addedKeys;
+    }
+
+    /**
+     * Returns the keys of the configurations whose values are changed.
+     *
+     * @return the changed configuration keys
+     */
+    public Set<String> getChangedKeys() {
+        return changedKeys;
+    }
+
+    /**
+     * Returns the keys of the configurations removed.
+     *
+     * @return the removed configuration keys
+     */
+    public Set<String> getRemovedKeys() {
+        return removedKeys;
+    }
+
+    /**
+     * Returns the keys of all the added, changed and removed configurations.
+     *
+     * @return the keys of all the modified configurations
+     */
+    public Set<String> getKeys() {
+        Set<String> keys = new HashSet<>(addedKeys);
+        keys.addAll(changedKeys);
+        keys.addAll(removedKeys);
+        return keys;
+    }
+
+    /**
+     * Returns true if no configuration is added, changed or removed.
+     *
+     * @return true if there are no changes
+     */
+    public boolean isEmpty() {
+        return addedKeys.isEmpty() && changedKeys.isEmpty() && removedKeys.isEmpty();
+    }
+
+    ConfigChangeEvent filter(Predicate<String> keyFilter) {
+        return new ConfigChangeEvent(snapshot, filter(addedKeys, keyFilter), filter(changedKeys, keyFilter),
+                filter(removedKeys, keyFilter));
+    }
+
+    private static Set<String> filter(Set<String> keys, Predicate<String> keyFilter) {
+        return keys.stream().filter(keyFilter).collect(Collectors.toSet());
+    }
+
+}
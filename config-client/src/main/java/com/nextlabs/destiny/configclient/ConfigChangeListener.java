@@ -0,0 +1,18 @@
+package com.nextlabs.destiny.configclient;
+
+/**
+ * Listener notified when configurations are added, changed or removed by a configuration refresh. Listeners are
+ * registered for a configuration key or a key prefix using the ConfigClient and are notified on a dedicated thread
+ * only when the matching configurations change.
+ */
+@FunctionalInterface
+public interface ConfigChangeListener {
+
+    /**
+     * Invoked after a configuration snapshot containing changes to the matching configurations is published.
+     *
+     * @param event the changes of the matching configurations
+     */
+    void onChange(ConfigChangeEvent event);
+
+}
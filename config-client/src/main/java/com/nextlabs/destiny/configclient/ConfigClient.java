@@ -1,98 +1,99 @@
 package com.nextlabs.destiny.configclient;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Paths;
-import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.bluejungle.framework.crypt.ReversibleEncryptor;
-import com.nextlabs.destiny.logmanager.LogManagerClient;
+import com.nextlabs.cc.common.metrics.RefreshMetrics;
+import com.nextlabs.cc.common.retry.RetryPolicy;
+import com.nextlabs.cc.common.util.EncryptionUtil;
 
 /**
  * ConfigClient maintains the configuration list for application. The init method should be called as soon as the
  * Application is initialized and before using the configurations. The configurations can be obtained using get()
  * methods which returns a Config supplier.
+ * <p>
+ * The static methods use the configuration client of the default application, which is named by the init method.
+ * The configuration clients of other applications in the same JVM are obtained with {@link #forApplication(String)},
+ * and share the HTTP transport, the ActiveMQ broker connection and the logger and secure store refreshes with the
+ * default application.
  *
  * @author Sachindra Dasun
  */
 public class ConfigClient {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigClient.class);
-    private static final Map<String, Config> configMap = new ConcurrentHashMap<>();
-    static final ReversibleEncryptor REVERSIBLE_ENCRYPTOR = new ReversibleEncryptor();
-    private static final String ENCRYPTED_VALUE_PREFIX = "{cipher}";
     static final String CONFIG_KEY_CC_HOME = "cc.home";
-    private static final String CONFIG_KEY_SERVER_HOSTNAME = "server.hostname";
-    private static final String AUTHORIZATION_PROPERTY = "Basic %s";
-
-    private static String applicationName = "application";
-    private static String configServiceUrl = "";
-    private static String configServiceUsername = "";
-    private static String configServicePassword = "";
-    private static ConfigRefresher configRefresher;
+    static final String CONFIG_KEY_SERVER_HOSTNAME = "server.hostname";
+    private static final ApplicationConfigClient defaultClient = new ApplicationConfigClient("application");
+    private static final Map<String, ApplicationConfigClient> applicationClients = new ConcurrentHashMap<>();
 
     private ConfigClient() {
     }
 
+    /**
+     * Returns the configuration client of the given application, creating it if it does not exist. The configuration
+     * client of the default application is returned if the name is the name of the default application. The returned
+     * client should be initialized before using the configurations.
+     *
+     * @param applicationName the application name used to load configurations
+     * @return the configuration client of the application
+     */
+    public static ApplicationConfigClient forApplication(String applicationName) {
+        if (applicationName == null || applicationName.isEmpty()) {
+            throw new IllegalArgumentException("Application name cannot be empty.");
+        }
+        if (applicationName.equals(defaultClient.getApplicationName())) {
+            return defaultClient;
+        }
+        return applicationClients.computeIfAbsent(applicationName, ApplicationConfigClient::new);
+    }
+
     /**
      * Initialize the configuration client. If application name is not provided, only the default configurations will be
      * available.
+     * <p>
+     * The configuration service is accessed using a retry policy created from the "spring.cloud.config.retry.*" and
+     * "spring.cloud.config.circuit-breaker.*" bootstrap properties, and the initialization fails if the configurations
+     * could not be obtained within the retry policy. Each attempt is bounded by the
+     * "spring.cloud.config.request-connect-timeout" and "spring.cloud.config.request-read-timeout" bootstrap
+     * properties in milliseconds.
+     * <p>
+     * If the "spring.cloud.config.snapshot.enabled" bootstrap property is true, the configurations received from the
+     * configuration service are stored in a snapshot file in the "server.config.path" directory. If a valid snapshot
+     * file is found, the configurations are loaded from it and the initialization returns without waiting for the
+     * configuration service, while the configurations and the logger configurations are refreshed in the background.
+     * The last applied logger configurations are applied from the cache of the log manager client if found. The
+     * snapshot is disabled by default.
      *
      * @param applicationName application name used to load configurations
-     * @throws Exception if an error occurred
+     * @throws IOException if an error occurred
+     * @see #initAsync(String)
      */
     public static void init(String applicationName) throws IOException {
-        if (applicationName != null && !applicationName.isEmpty()) {
-            ConfigClient.applicationName = applicationName;
-        }
-        
-        Properties bootstrapProperties = new Properties();
-        bootstrapProperties.load(new FileInputStream(System.getProperty("spring.cloud.bootstrap.location")));
-        configServiceUrl = bootstrapProperties.getProperty("spring.cloud.config.uri");
-        configServiceUsername = bootstrapProperties.getProperty("spring.cloud.config.username");
-        configServicePassword = bootstrapProperties.getProperty("spring.cloud.config.password");
-
-        // Enhance security, make sure communication happens in secured channel
-        if(configServiceUrl == null) {
-            throw new IllegalArgumentException("Invalid URL. URL cannot be null.");
-        }
-
-        refresh();
-
-        boolean enableLogManager = get("logger.manager.enabled", false).toBoolean();
-        boolean enableConfigRefresher = get("config.update.refresher.enabled", false).toBoolean();
-        boolean enableLoggerRefresher = get("logger.update.refresher.enabled", false).toBoolean();
-        boolean enableSecureStoreRefresher = get("secureStore.update.refresher.enabled", false).toBoolean();
-
-        // Logger refresher will be enabled only if log manager is enabled.
-        enableLoggerRefresher = enableLogManager && enableLoggerRefresher;
-
-        if (enableLogManager) {
-            LogManagerClient.refresh(configServiceUrl, configServiceUsername, configServicePassword);
-        }
+        defaultClient.init(applicationName);
+    }
 
-        if (enableConfigRefresher || enableLoggerRefresher) {
-            configRefresher = new ConfigRefresher(enableConfigRefresher, enableLoggerRefresher, enableSecureStoreRefresher);
-            new Thread(configRefresher).start();
-        }
+    /**
+     * Initialize the configuration client without blocking the calling thread. The configurations are obtained first as
+     * the other stages depend on them, then the logger configurations, the secure stores and the ActiveMQ broker
+     * connection of the configuration refresher are obtained concurrently.
+     * <p>
+     * The returned future completes when the configurations and the logger configurations are ready. The secure stores
+     * are not downloaded at startup unless the "secureStore.download.on.startup" configuration is explicitly set to
+     * true, in which case the future also waits for them. The broker connection is not required to complete the
+     * future. A startup timeline with the start time and the duration of each stage is logged and the startup threads
+     * are stopped when all the stages are completed.
+     *
+     * @param applicationName application name used to load configurations
+     * @return a future completed when the required stages are completed
+     * @see #init(String)
+     */
+    public static CompletableFuture<Void> initAsync(String applicationName) {
+        return defaultClient.initAsync(applicationName);
     }
 
     /**
@@ -101,155 +102,103 @@ public class ConfigClient {
      * @return the application name
      */
     public static String getApplicationName() {
-        return applicationName;
+        return defaultClient.getApplicationName();
+    }
+
+    /**
+     * Returns the retry policy used to access the configuration service. The retry policy and its circuit breaker can
+     * be used to observe the state of the configuration service.
+     *
+     * @return the retry policy
+     */
+    public static RetryPolicy getRetryPolicy() {
+        return defaultClient.getRetryPolicy();
+    }
+
+    /**
+     * Returns the refresh metrics of the default application.
+     *
+     * @return the refresh metrics
+     */
+    public static RefreshMetrics getRefreshMetrics() {
+        return defaultClient.getRefreshMetrics();
     }
 
     /**
      * Access configuration service and return the configuration file content as an InputStream.
      *
      * @param uri URI which is relative to the configuration service uri defined in bootstrap.properties file
-     * @return an InputStream for configuration content
+     * @return an InputStream for configuration content or null if the content could not be obtained within the retry
+     * policy
      */
     public static InputStream getContent(String uri) {
-        byte[] authorization = String.format("%s:%s", configServiceUsername, decryptIfEncrypted(configServicePassword))
-                .getBytes(StandardCharsets.UTF_8);
-        String configurationPropertiesURL = String.format("%s/%s", configServiceUrl, uri);
-        while (true) {
-            HttpURLConnection connection = null;
-            try {
-                connection = (HttpURLConnection) new URL(configurationPropertiesURL).openConnection();
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("Authorization",
-                        String.format(AUTHORIZATION_PROPERTY, Base64.getEncoder().encodeToString(authorization)));
-                try (InputStream inputStream = connection.getInputStream()) {
-                    try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream()) {
-                        byte[] buffer = new byte[1024];
-                        int length;
-                        while ((length = inputStream.read(buffer)) > -1) {
-                            byteArrayOutputStream.write(buffer, 0, length);
-                        }
-                        byteArrayOutputStream.flush();
-                        return new ByteArrayInputStream(byteArrayOutputStream.toByteArray());
-                    }
-                }
-            } catch (IOException e) {
-                LOGGER.warn("Connection failed. Retrying.", e);
-                try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException ex) {
-                    LOGGER.error("Error occurred", e);
-                    return null;
-                }
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
-            }
-        }
+        return defaultClient.getContent(uri);
+    }
+
+    /**
+     * Access configuration service and return the configuration file content as an InputStream if the content is
+     * modified since it was last obtained using this method.
+     *
+     * @param uri URI which is relative to the configuration service uri defined in bootstrap.properties file
+     * @return an InputStream for configuration content or null if the content is not modified
+     * @throws IOException if the content could not be obtained within the retry policy
+     */
+    static InputStream getModifiedContent(String uri) throws IOException {
+        return defaultClient.getModifiedContent(uri);
     }
 
     /**
      * Perform configuration refresh. This method should not be called outside the config-client.
      *
-     * @throws Exception if an error occurred
+     * @throws IOException if an error occurred
      */
     public static void refresh() throws IOException {
-        Properties properties = new Properties();
-        try (InputStream inputStream = getContent(String.format("%s-default.properties", applicationName))) {
-            properties.load(inputStream);
-        }
-        overrideProperties(properties);
-        update(properties);
-        LOGGER.info("Configurations refreshed");
+        defaultClient.refresh();
     }
 
     public static void downloadSecureStore() throws IOException {
-        InputStream inputStream = getContent("secure-store/download");
-        if (inputStream == null) {
-            return;
-        }
-        try (ZipInputStream zipInputStream = new ZipInputStream(inputStream)) {
-            ZipEntry fileEntry = zipInputStream.getNextEntry();
-
-            while(fileEntry != null) {
-                byte[] buffer = new byte[1024];
-                int length;
-                File unzipFile = new File(String.join(File.separator, System.getProperty(CONFIG_KEY_CC_HOME, "")
-                                , "server", "certificates", fileEntry.getName()));
-                try(FileOutputStream fileOutputStream = new FileOutputStream(unzipFile)) {
-                    while((length = zipInputStream.read(buffer)) > 0) {
-                        fileOutputStream.write(buffer, 0, length);
-                    }
-                    fileOutputStream.flush();
-                }
-                fileEntry = zipInputStream.getNextEntry();
-            }
-            zipInputStream.closeEntry();
-        }
-
-        LOGGER.info("Secure stores downloaded");
-
+        defaultClient.downloadSecureStore();
     }
 
     /**
-     * Override properties from configurations found in local configuration file.
+     * Update the configuration map. This method should not be called outside the config-client.
      *
-     * @param properties the properties to override
+     * @param properties the configuration value source
+     * @see ApplicationConfigClient#update(Properties)
      */
-    private static void overrideProperties(Properties properties) throws IOException {
-        String configPath = System.getProperty("server.config.path");
-        if (configPath != null) {
-            File configFile = Paths.get(configPath, String.format("%s-local.properties", applicationName)).toFile();
-            if (configFile.exists()) {
-                Properties localProperties = new Properties();
-                try (FileInputStream fileInputStream = new FileInputStream(configFile)) {
-                    localProperties.load(fileInputStream);
-                }
-                LOGGER.info("Configurations overridden from local file: {}", localProperties.entrySet());
-                properties.putAll(localProperties);
-            }
-        }
+    public static void update(Properties properties) {
+        defaultClient.update(properties);
     }
 
     /**
-     * Update the configuration map. This method should not be called outside the config-client.
+     * Register a listener to be notified when the configuration with the given key is added, changed or removed. The
+     * listeners are notified on a dedicated thread in the order the changes are published.
      *
-     * @param properties the configuration value source
+     * @param key      the configuration key
+     * @param listener the listener to notify
      */
-    public static synchronized void update(Properties properties) {
-        for (Map.Entry<Object, Object> entry : properties.entrySet()) {
-            Config config = configMap.computeIfAbsent(entry.getKey().toString(), Config::new);
-            if (entry.getValue() != null) {
-                String value = entry.getValue().toString();
-                if (value.startsWith(ENCRYPTED_VALUE_PREFIX)) {
-                    value = REVERSIBLE_ENCRYPTOR.decrypt(value.substring(value.indexOf(ENCRYPTED_VALUE_PREFIX)
-                            + ENCRYPTED_VALUE_PREFIX.length()));
-                }
-                config.setValue(getInterpolatedValue(value));
-            }
-        }
-        addDefaultConfigurations();
+    public static void addChangeListener(String key, ConfigChangeListener listener) {
+        defaultClient.addChangeListener(key, listener);
     }
 
-    private static String getInterpolatedValue(String value) {
-        if (value.contains("${")) {
-            for (Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
-                value = value.replace(String.format("${%s}", entry.getKey().toString()), entry.getValue().toString());
-            }
-        }
-        return value;
+    /**
+     * Register a listener to be notified when configurations with keys starting with the given prefix are added,
+     * changed or removed. The listeners are notified on a dedicated thread in the order the changes are published.
+     *
+     * @param prefix   the configuration key prefix
+     * @param listener the listener to notify
+     */
+    public static void addPrefixChangeListener(String prefix, ConfigChangeListener listener) {
+        defaultClient.addPrefixChangeListener(prefix, listener);
     }
 
-    private static void addDefaultConfigurations() {
-        if (!configMap.containsKey(CONFIG_KEY_CC_HOME)) {
-            Config ccHomeConfig = new Config(CONFIG_KEY_CC_HOME, System.getProperty(CONFIG_KEY_CC_HOME, ""));
-            configMap.put(ccHomeConfig.getKey(), ccHomeConfig);
-        }
-
-        if (!configMap.containsKey(CONFIG_KEY_SERVER_HOSTNAME)) {
-            Config serverHostnameConfig = new Config(CONFIG_KEY_SERVER_HOSTNAME, System.getProperty(CONFIG_KEY_SERVER_HOSTNAME, ""));
-            configMap.put(serverHostnameConfig.getKey(), serverHostnameConfig);
-        }
+    /**
+     * Remove all the registrations of the given listener.
+     *
+     * @param listener the listener to remove
+     */
+    public static void removeChangeListener(ConfigChangeListener listener) {
+        defaultClient.removeChangeListener(listener);
     }
 
     /**
@@ -260,19 +209,24 @@ public class ConfigClient {
      * @return the configuration object
      */
     public static Config get(String key) {
-        return get(key, null);
+        return defaultClient.get(key);
     }
 
     /**
      * Returns the configuration object for the given key. If the configuration object does not exists, a new
      * configuration will be created with the value as the given String value.
+     * <p>
+     * The returned configuration object is a stable handle for the key and can be kept in a field. Reading a value
+     * through the handle is a single array access on the configuration snapshot, while this method requires a hash
+     * lookup on every call. A configuration which is not received from the configuration service is only weakly held
+     * by the ConfigClient, so its default value is kept while the application holds the configuration object.
      *
      * @param key          the configuration key
      * @param defaultValue default value of the configuration
      * @return the configuration object
      */
     public static Config get(String key, String defaultValue) {
-        return configMap.computeIfAbsent(key, configKey -> new Config(configKey, defaultValue));
+        return defaultClient.get(key, defaultValue);
     }
 
     /**
@@ -280,9 +234,7 @@ public class ConfigClient {
      * application to properly close the ActiveMQ connection.
      */
     public static void close() {
-        if (configRefresher != null) {
-            configRefresher.close();
-        }
+        defaultClient.close();
     }
 
     /**
@@ -294,7 +246,7 @@ public class ConfigClient {
      * @return the configuration object
      */
     public static Config get(String key, long defaultValue) {
-        return get(key, String.valueOf(defaultValue));
+        return defaultClient.get(key, defaultValue);
     }
 
     /**
@@ -306,7 +258,7 @@ public class ConfigClient {
      * @return the configuration object
      */
     public static Config get(String key, int defaultValue) {
-        return get(key, String.valueOf(defaultValue));
+        return defaultClient.get(key, defaultValue);
     }
 
     /**
@@ -318,7 +270,7 @@ public class ConfigClient {
      * @return the configuration object
      */
     public static Config get(String key, double defaultValue) {
-        return get(key, String.valueOf(defaultValue));
+        return defaultClient.get(key, defaultValue);
     }
 
     /**
@@ -330,19 +282,19 @@ public class ConfigClient {
      * @return the configuration object
      */
     public static Config get(String key, boolean defaultValue) {
-        return get(key, String.valueOf(defaultValue));
+        return defaultClient.get(key, defaultValue);
     }
 
     /**
-     * Returns all configurations matching with the given prefix.
+     * Returns all configurations matching with the given prefix. The configurations are found with a range query on a
+     * sorted key index and the matching keys are cached until a configuration is added or removed. The returned list
+     * is not cached, so it does not keep the unused configurations from being garbage collected.
      *
      * @param prefix prefix to filter the configurations
-     * @return the matching configurations as a List
+     * @return the matching configurations as an unmodifiable List in key order
      */
     public static List<Config> getAll(String prefix) {
-        return configMap.values().stream()
-                .filter(config -> prefix == null || prefix.isEmpty() || config.getKey().startsWith(prefix))
-                .collect(Collectors.toList());
+        return defaultClient.getAll(prefix);
     }
 
     /**
@@ -351,26 +303,41 @@ public class ConfigClient {
      * @return all configurations as a List
      */
     public static List<Config> getAll() {
-        return getAll(null);
+        return defaultClient.getAll();
+    }
+
+    /**
+     * Returns the metrics of the configuration keys, such as the number of keys and the number of evicted keys.
+     *
+     * @return the configuration key metrics
+     */
+    public static ConfigKeyMetrics getKeyMetrics() {
+        return defaultClient.getKeyMetrics();
     }
 
     /**
-     * Clear ThreadLocal values.
+     * Returns the latest published configuration snapshot.
+     *
+     * @return the latest configuration snapshot
+     */
+    public static ConfigSnapshot getSnapshot() {
+        return defaultClient.getSnapshot();
+    }
+
+    /**
+     * Clear ThreadLocal values of the default application and the applications obtained with
+     * {@link #forApplication(String)}. The next ThreadLocal access will pin the latest configuration snapshot. This
+     * does not depend on the number of configurations.
      */
     public static void clear() {
-        for (Map.Entry<String, Config> entry : configMap.entrySet()) {
-            Config config = entry.getValue();
-            if (config != null) {
-                entry.getValue().clear();
-            }
+        defaultClient.clear();
+        for (ApplicationConfigClient client : applicationClients.values()) {
+            client.clear();
         }
     }
 
     public static String decryptIfEncrypted(String text) {
-        if (text != null && text.startsWith(ENCRYPTED_VALUE_PREFIX)) {
-            return REVERSIBLE_ENCRYPTOR.decrypt(text);
-        }
-        return text;
+        return EncryptionUtil.decryptIfEncrypted(text);
     }
 
 }
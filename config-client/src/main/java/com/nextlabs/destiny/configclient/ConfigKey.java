@@ -0,0 +1,49 @@
+package com.nextlabs.destiny.configclient;
+
+/**
+ * A configuration key with the dense slot assigned to it. All the configuration objects and the configuration
+ * snapshots with the key share the same ConfigKey, and the slot is released for another key only when the ConfigKey is
+ * no longer reachable, hence a slot is never used by two keys at the same time.
+ * <p>
+ * The ConfigKey also holds the first typed default value registered for the key, so the default value is used by all
+ * the configuration objects of the key, including the objects created by a refresh before the application registered
+ * the default value.
+ */
+final class ConfigKey {
+
+    private final String key;
+    private final int slot;
+    private volatile ConfigValue defaultValue = ConfigValue.NULL;
+
+    ConfigKey(String key, int slot) {
+        this.key = key;
+        this.slot = slot;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    ConfigValue getDefaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * Set the default value of the key if a default value is not set.
+     *
+     * @param value the default value
+     * @return true if the default value is set
+     */
+    synchronized boolean setDefaultValueIfAbsent(ConfigValue value) {
+        if (defaultValue != ConfigValue.NULL || value == ConfigValue.NULL) {
+            return false;
+        }
+        defaultValue = value;
+        return true;
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Sorted index of the configuration keys, so the configurations with a prefix are found with a range query in
+ * O(log n + matches) instead of checking every configuration. The matching keys are cached per prefix until a key is
+ * added or removed, which changes the version of the index. Only the keys are cached and the configuration objects are
+ * looked up on each call, so the cache does not keep the weakly held configurations from being garbage collected.
+ */
+final class ConfigKeyIndex {
+
+    private final NavigableSet<String> keys = new ConcurrentSkipListSet<>();
+    private final AtomicLong version = new AtomicLong();
+    private volatile PrefixViews prefixViews = new PrefixViews(0);
+
+    /**
+     * Add the given configuration key to the index.
+     *
+     * @param key the configuration key
+     */
+    void add(String key) {
+        if (keys.add(key)) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove the configuration with the given key from the index.
+     *
+     * @param key the configuration key
+     */
+    void remove(String key) {
+        if (keys.remove(key)) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the configurations with keys starting with the given prefix in key order.
+     *
+     * @param prefix  the key prefix, all configurations are returned if null or empty
+     * @param configs the function which returns the configuration object of a key or null if it does not exist
+     * @return the unmodifiable list of the matching configurations
+     */
+    List<Config> getAll(String prefix, Function<String, Config> configs) {
+        String keyPrefix = prefix == null ? "" : prefix;
+        long currentVersion = version.get();
+        PrefixViews views = prefixViews;
+        if (views.version != currentVersion) {
+            views = new PrefixViews(currentVersion);
+            prefixViews = views;
+        }
+        List<String> matchingKeys = views.matches.get(keyPrefix);
+        if (matchingKeys == null) {
+            matchingKeys = find(keyPrefix);
+            views.matches.put(keyPrefix, matchingKeys);
+        }
+        List<Config> matches = new ArrayList<>(matchingKeys.size());
+        for (String key : matchingKeys) {
+            Config config = configs.apply(key);
+            if (config != null) {
+                matches.add(config);
+            }
+        }
+        return Collections.unmodifiableList(matches);
+    }
+
+    private List<String> find(String prefix) {
+        List<String> matches = new ArrayList<>();
+        for (String key : keys.tailSet(prefix, true)) {
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            matches.add(key);
+        }
+        return matches;
+    }
+
+    /**
+     * The keys found for each prefix in a version of the index.
+     */
+    private static final class PrefixViews {
+
+        private final long version;
+        private final Map<String, List<String>> matches = new ConcurrentHashMap<>();
+
+        private PrefixViews(long version) {
+            this.version = version;
+        }
+
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.nextlabs.destiny.configclient;
+
+/**
+ * Metrics of the configuration keys known by the ConfigClient.
+ */
+public final class ConfigKeyMetrics {
+
+    private final int keyCount;
+    private final int retainedKeyCount;
+    private final int tombstonedKeyCount;
+    private final int slotCount;
+    private final long evictedTombstoneCount;
+    private final long collectedKeyCount;
+
+    ConfigKeyMetrics(int keyCount, int retainedKeyCount, int tombstonedKeyCount, int slotCount,
+                     long evictedTombstoneCount, long collectedKeyCount) {
+        this.keyCount = keyCount;
+        this.retainedKeyCount = retainedKeyCount;
+        this.tombstonedKeyCount = tombstonedKeyCount;
+        this.slotCount = slotCount;
+        this.evictedTombstoneCount = evictedTombstoneCount;
+        this.collectedKeyCount = collectedKeyCount;
+    }
+
+    /**
+     * Returns the number of configuration objects, including the configurations which are only weakly held.
+     *
+     * @return the number of configuration objects
+     */
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * Returns the number of configurations which are strongly held because they are received from the configuration
+     * service or set, including the tombstoned configurations.
+     *
+     * @return the number of strongly held configurations
+     */
+    public int getRetainedKeyCount() {
+        return retainedKeyCount;
+    }
+
+    /**
+     * Returns the number of configurations removed from the configuration service which are still strongly held.
+     *
+     * @return the number of tombstoned configurations
+     */
+    public int getTombstonedKeyCount() {
+        return tombstonedKeyCount;
+    }
+
+    /**
+     * Returns the number of slots in use by the configuration keys.
+     *
+     * @return the number of slots in use
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Returns the number of tombstoned configurations which are no longer strongly held.
+     *
+     * @return the number of evicted tombstones
+     */
+    public long getEvictedTombstoneCount() {
+        return evictedTombstoneCount;
+    }
+
+    /**
+     * Returns the number of weakly held configurations which are garbage collected and removed.
+     *
+     * @return the number of collected configurations
+     */
+    public long getCollectedKeyCount() {
+        return collectedKeyCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("keys=%d, retained=%d, tombstoned=%d, slots=%d, evictedTombstones=%d, collected=%d",
+                keyCount, retainedKeyCount, tombstonedKeyCount, slotCount, evictedTombstoneCount, collectedKeyCount);
+    }
+
+}
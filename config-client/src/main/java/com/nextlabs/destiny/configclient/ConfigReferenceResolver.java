@@ -0,0 +1,221 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the ${name} placeholders of configuration values when the configurations are refreshed. A placeholder is
+ * replaced with the system property of the name if it exists, otherwise with the resolved value of the configuration
+ * with the name, so the configurations can reference each other and the values are read without interpolation.
+ * <p>
+ * The references between the configurations are kept as a dependency graph. Only the configurations whose value
+ * changed, whose referenced system properties changed or which reference an added or removed configuration are
+ * resolved again, together with all the configurations which depend on them. The placeholders of the configurations
+ * which reference each other in a cycle are not resolved and the cycle is logged. This class is not thread safe and is
+ * used while holding the ApplicationConfigClient lock.
+ */
+final class ConfigReferenceResolver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConfigReferenceResolver.class);
+
+    private Map<String, Node> nodes = Collections.emptyMap();
+    private Map<String, Set<String>> dependents = Collections.emptyMap();
+
+    /**
+     * Resolve the given configuration values.
+     *
+     * @param values the configuration values with placeholders by configuration key
+     * @return the resolved configuration values by configuration key
+     */
+    Map<String, String> resolve(Map<String, String> values) {
+        Set<String> dirtyKeys = getDirtyKeys(values);
+        Map<String, Node> resolvedNodes = new HashMap<>(values.size());
+        for (Map.Entry<String, Node> entry : nodes.entrySet()) {
+            if (!dirtyKeys.contains(entry.getKey())) {
+                resolvedNodes.put(entry.getKey(), entry.getValue());
+            }
+        }
+        Map<String, List<String>> references = new HashMap<>();
+        for (String key : dirtyKeys) {
+            String value = values.get(key);
+            if (value != null) {
+                List<String> names = new ArrayList<>();
+                Interpolator.interpolate(value, name -> {
+                    names.add(name);
+                    return null;
+                });
+                references.put(key, names);
+            }
+        }
+        Set<String> cyclicKeys = new CycleFinder(references).find();
+        for (String key : references.keySet()) {
+            resolve(key, values, references, cyclicKeys, resolvedNodes);
+        }
+
+        Map<String, Set<String>> resolvedDependents = new HashMap<>();
+        Map<String, String> resolvedValues = new HashMap<>(values.size());
+        for (Map.Entry<String, Node> entry : resolvedNodes.entrySet()) {
+            for (String name : entry.getValue().systemProperties.keySet()) {
+                resolvedDependents.computeIfAbsent(name, k -> new HashSet<>()).add(entry.getKey());
+            }
+            resolvedValues.put(entry.getKey(), entry.getValue().resolvedValue);
+        }
+        nodes = resolvedNodes;
+        dependents = resolvedDependents;
+        return resolvedValues;
+    }
+
+    /**
+     * Returns the keys of the configurations to resolve, which are the added, changed and removed configurations,
+     * the configurations whose referenced system properties changed and the configurations which depend on them.
+     */
+    private Set<String> getDirtyKeys(Map<String, String> values) {
+        Deque<String> changedKeys = new ArrayDeque<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Node node = nodes.get(entry.getKey());
+            if (node == null || !node.value.equals(entry.getValue()) || node.isSystemPropertyChanged()) {
+                changedKeys.add(entry.getKey());
+            }
+        }
+        for (String key : nodes.keySet()) {
+            if (!values.containsKey(key)) {
+                changedKeys.add(key);
+            }
+        }
+        Set<String> dirtyKeys = new HashSet<>(changedKeys);
+        while (!changedKeys.isEmpty()) {
+            for (String dependent : dependents.getOrDefault(changedKeys.poll(), Collections.emptySet())) {
+                if (dirtyKeys.add(dependent)) {
+                    changedKeys.add(dependent);
+                }
+            }
+        }
+        return dirtyKeys;
+    }
+
+    private static String resolve(String key, Map<String, String> values, Map<String, List<String>> references,
+                                  Set<String> cyclicKeys, Map<String, Node> resolvedNodes) {
+        Node node = resolvedNodes.get(key);
+        if (node != null) {
+            return node.resolvedValue;
+        }
+        String value = values.get(key);
+        Map<String, String> systemProperties = new HashMap<>();
+        for (String name : references.get(key)) {
+            systemProperties.put(name, System.getProperty(name));
+        }
+        String resolvedValue = Interpolator.interpolate(value, name -> {
+            String systemProperty = systemProperties.get(name);
+            if (systemProperty != null || !values.containsKey(name) || cyclicKeys.contains(name)) {
+                return systemProperty;
+            }
+            return resolve(name, values, references, cyclicKeys, resolvedNodes);
+        });
+        if (resolvedValue != value) {
+            resolvedValue = ConfigStrings.dedupe(resolvedValue);
+        }
+        resolvedNodes.put(key, new Node(value, resolvedValue, systemProperties));
+        return resolvedValue;
+    }
+
+    /**
+     * A resolved configuration value with the system properties of the placeholder names, which are null for the
+     * names which are not system properties.
+     */
+    private static final class Node {
+
+        private final String value;
+        private final String resolvedValue;
+        private final Map<String, String> systemProperties;
+
+        private Node(String value, String resolvedValue, Map<String, String> systemProperties) {
+            this.value = value;
+            this.resolvedValue = resolvedValue;
+            this.systemProperties = systemProperties;
+        }
+
+        private boolean isSystemPropertyChanged() {
+            for (Map.Entry<String, String> entry : systemProperties.entrySet()) {
+                if (!Objects.equals(entry.getValue(), System.getProperty(entry.getKey()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Finds the configurations which reference each other in a cycle, which are the strongly connected components of
+     * the configuration references with more than one configuration or a self reference, using Tarjan's algorithm.
+     */
+    private static final class CycleFinder {
+
+        private final Map<String, List<String>> references;
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final Map<String, Integer> lowLinks = new HashMap<>();
+        private final Deque<String> stack = new ArrayDeque<>();
+        private final Set<String> stackKeys = new HashSet<>();
+        private final Set<String> cyclicKeys = new HashSet<>();
+
+        private CycleFinder(Map<String, List<String>> references) {
+            this.references = references;
+        }
+
+        private Set<String> find() {
+            for (String key : references.keySet()) {
+                if (!indexes.containsKey(key)) {
+                    visit(key);
+                }
+            }
+            return cyclicKeys;
+        }
+
+        private void visit(String key) {
+            int index = indexes.size();
+            indexes.put(key, index);
+            lowLinks.put(key, index);
+            stack.push(key);
+            stackKeys.add(key);
+            boolean selfReference = false;
+            for (String name : references.get(key)) {
+                if (!references.containsKey(name) || System.getProperty(name) != null) {
+                    continue;
+                }
+                selfReference |= name.equals(key);
+                if (!indexes.containsKey(name)) {
+                    visit(name);
+                    lowLinks.put(key, Math.min(lowLinks.get(key), lowLinks.get(name)));
+                } else if (stackKeys.contains(name)) {
+                    lowLinks.put(key, Math.min(lowLinks.get(key), indexes.get(name)));
+                }
+            }
+            if (lowLinks.get(key) == index) {
+                List<String> component = new ArrayList<>();
+                String member;
+                do {
+                    member = stack.pop();
+                    stackKeys.remove(member);
+                    component.add(member);
+                } while (!member.equals(key));
+                if (component.size() > 1 || selfReference) {
+                    cyclicKeys.addAll(component);
+                    LOGGER.warn("Configurations {} reference each other in a cycle and are not resolved", component);
+                }
+            }
+        }
+
+    }
+
+}
@@ -1,5 +1,8 @@
 package com.nextlabs.destiny.configclient;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
 import javax.jms.Connection;
 import javax.jms.JMSException;
 import javax.jms.MessageConsumer;
@@ -15,12 +18,26 @@ import org.slf4j.LoggerFactory;
 
 import com.nextlabs.destiny.configclient.listeners.ConfigUpdateListener;
 import com.nextlabs.destiny.configclient.listeners.LoggerUpdateListener;
+import com.nextlabs.destiny.logmanager.LogManagerClient;
 
 /**
  * Create ActiveMQ connection and subscribe to messages received to a application specific configuration update topic.
  * When a configuration update message is received, the configurations will be refreshed using the configuration
  * service. The additional parameters of the configuration factory can be customized by creating properties with the
  * prefix "config.activeMQConnectionFactory".
+ * <p>
+ * The refreshes are performed on a dedicated thread instead of the message delivery thread. The update messages
+ * received within the debounce window of a refresh are merged into a single refresh. As the update messages are
+ * broadcast to all the nodes, the refreshes can be spread over a window with the "refresher.schedule.policy"
+ * configuration, which is one of immediate, random or hostname, and the "refresher.schedule.window" configuration in
+ * milliseconds.
+ * <p>
+ * The ActiveMQ connection with the same broker URL is shared by the refreshers of the applications in the JVM, and each
+ * refresher subscribes to the topics of its application with its own session. The configurations of each application
+ * are refreshed on a thread of the application. The logger configurations and the secure stores are not specific to an
+ * application, hence their refreshes are shared and the update messages received by all the applications are merged
+ * into a single refresh. The shared refreshes use the debounce and scheduling settings of the first application which
+ * starts a refresher.
  *
  * @author Sachindra Dasun
  */
@@ -31,15 +48,13 @@ class ConfigRefresher implements Runnable {
     private static final String DEFAULT_CONFIG_UPDATE_TOPIC = "jms/cc.%application.name%.config.update";
     private static final String DEFAULT_LOGGER_UPDATE_TOPIC = "jms/cc.%application.name%.logger.update";
     private static final String DEFAULT_SECURE_STORE_UPDATE_TOPIC = "jms/cc.%application.name%.securestore.update";
-    private static final Config brokerUrl = ConfigClient.get("config.activeMQConnectionFactory.brokerURL");
-    private static final boolean brokerSslEnabled = ConfigClient.get("activemq.broker.ssl.enabled", true).toBoolean();
-    private static final Config configUpdateTopic = ConfigClient.get("jms.config.update.topic",
-            DEFAULT_CONFIG_UPDATE_TOPIC);
-    private static final Config loggerUpdateTopic = ConfigClient.get("jms.logger.update.topic",
-            DEFAULT_LOGGER_UPDATE_TOPIC);
-    private static final Config secureStoreUpdateTopic = ConfigClient.get("jms.securestore.update.topic",
-            DEFAULT_SECURE_STORE_UPDATE_TOPIC);
 
+    private final ApplicationConfigClient client;
+    private final Config brokerUrl;
+    private final boolean brokerSslEnabled;
+    private final Config configUpdateTopic;
+    private final Config loggerUpdateTopic;
+    private final Config secureStoreUpdateTopic;
     private boolean enableConfigRefresher;
     private boolean enableLoggerRefresher;
     private boolean enableSecureStoreRefresher;
@@ -48,11 +63,43 @@ class ConfigRefresher implements Runnable {
     private MessageConsumer configUpdateConsumer;
     private MessageConsumer loggerUpdateConsumer;
     private MessageConsumer secureStoreUpdateConsumer;
-
-    ConfigRefresher(boolean enableConfigRefresher, boolean enableLoggerRefresher, boolean enableSecureStoreRefresher) {
+    private final ScheduledExecutorService refreshExecutor;
+    private final ScheduledExecutorService sharedRefreshExecutor;
+    private final CoalescingRefresh configRefresh;
+    private final CoalescingRefresh loggerRefresh;
+    private final CoalescingRefresh secureStoreRefresh;
+
+    ConfigRefresher(ApplicationConfigClient client, boolean enableConfigRefresher, boolean enableLoggerRefresher,
+                    boolean enableSecureStoreRefresher) {
+        this.client = client;
         this.enableConfigRefresher = enableConfigRefresher;
         this.enableLoggerRefresher = enableLoggerRefresher;
         this.enableSecureStoreRefresher = enableSecureStoreRefresher;
+        this.brokerUrl = client.get("config.activeMQConnectionFactory.brokerURL");
+        this.brokerSslEnabled = client.get("activemq.broker.ssl.enabled", true).toBoolean();
+        this.configUpdateTopic = client.get("jms.config.update.topic", DEFAULT_CONFIG_UPDATE_TOPIC);
+        this.loggerUpdateTopic = client.get("jms.logger.update.topic", DEFAULT_LOGGER_UPDATE_TOPIC);
+        this.secureStoreUpdateTopic = client.get("jms.securestore.update.topic", DEFAULT_SECURE_STORE_UPDATE_TOPIC);
+        long configUpdateDebounce = client.get("config.update.refresher.debounce", 500).toLong();
+        long loggerUpdateDebounce = client.get("logger.update.refresher.debounce", 500).toLong();
+        long secureStoreUpdateDebounce = client.get("secureStore.update.refresher.debounce", 500).toLong();
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "config-refresher-" + client.getApplicationName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sharedRefreshExecutor = SharedClientResources.acquireScheduler();
+        RefreshSchedulingPolicy schedulingPolicy = RefreshSchedulingPolicy.of(
+                client.get("refresher.schedule.policy", "random").toString(),
+                client.get(ConfigClient.CONFIG_KEY_SERVER_HOSTNAME).toString(false),
+                client.get("refresher.schedule.window", 0).toLong());
+        this.configRefresh = new CoalescingRefresh("configurations", client::refresh, refreshExecutor,
+                configUpdateDebounce, schedulingPolicy);
+        this.loggerRefresh = SharedClientResources.getRefresh("logger configurations",
+                () -> new CoalescingRefresh("logger configurations", LogManagerClient::refresh, sharedRefreshExecutor,
+                        loggerUpdateDebounce, schedulingPolicy));
+        this.secureStoreRefresh = SharedClientResources.getSecureStoreRefresh(client.getTransport(),
+                secureStoreUpdateDebounce, schedulingPolicy);
     }
 
     public void run() {
@@ -63,31 +110,33 @@ class ConfigRefresher implements Runnable {
             return;
         }
         try {
-            ActiveMQConnectionFactory connectionFactory = brokerSslEnabled ?
-                    new ActiveMQSslConnectionFactory() : new ActiveMQConnectionFactory();
-            customizeConnectionFactory(connectionFactory);
-            connection = connectionFactory.createConnection();
-            connection.start();
+            String connectionKey = brokerSslEnabled + ":" + brokerUrl.toString(false);
+            connection = SharedClientResources.acquireConnection(connectionKey, () -> {
+                ActiveMQConnectionFactory connectionFactory = brokerSslEnabled ?
+                        new ActiveMQSslConnectionFactory() : new ActiveMQConnectionFactory();
+                customizeConnectionFactory(connectionFactory);
+                return connectionFactory.createConnection();
+            });
             session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
             if (enableConfigRefresher) {
-                createConfigUpdateConsumer(session, new ConfigUpdateListener());
+                createConfigUpdateConsumer(session, new ConfigUpdateListener(configRefresh));
             }
             if (enableLoggerRefresher) {
-                createLoggerUpdateConsumer(session, new LoggerUpdateListener());
+                createLoggerUpdateConsumer(session, new LoggerUpdateListener(loggerRefresh));
             }
             if (enableSecureStoreRefresher) {
-                createSecureStoreUpdateConsumer(session, new SecureStoreUpdateListener());
+                createSecureStoreUpdateConsumer(session, new SecureStoreUpdateListener(secureStoreRefresh));
             }
         } catch (JMSException e) {
             LOGGER.error(String.format("Error in initializing configuration refresher. Configuration changes will not" +
                     " be refreshed. Please check if application can connect to the ActiveMQ broker at %s and restart " +
-                    "the application %s to retry.", brokerUrl, ConfigClient.getApplicationName()), e);
+                    "the application %s to retry.", brokerUrl, client.getApplicationName()), e);
         }
         LOGGER.info("Configuration refresher started and listening for configuration updates.");
     }
 
     private void customizeConnectionFactory(ActiveMQConnectionFactory connectionFactory) {
-        for (Config config : ConfigClient.getAll(CONNECTION_FACTORY_CONFIG_PREFIX)) {
+        for (Config config : client.getAll(CONNECTION_FACTORY_CONFIG_PREFIX)) {
             try {
                 BeanUtils.setProperty(connectionFactory,
                         config.getKey().replace(CONNECTION_FACTORY_CONFIG_PREFIX, "")
@@ -102,21 +151,21 @@ class ConfigRefresher implements Runnable {
 
     private void createConfigUpdateConsumer(Session session, MessageListener configUpdateListener) throws JMSException {
         String topicName = configUpdateTopic.toString().replace("%application.name%",
-                ConfigClient.getApplicationName());
+                client.getApplicationName());
         this.configUpdateConsumer = session.createConsumer(session.createTopic(topicName));
         this.configUpdateConsumer.setMessageListener(configUpdateListener);
     }
 
     private void createLoggerUpdateConsumer(Session session, MessageListener loggerUpdateListener) throws JMSException {
         String topicName = loggerUpdateTopic.toString().replace("%application.name%",
-                ConfigClient.getApplicationName());
+                client.getApplicationName());
         this.loggerUpdateConsumer = session.createConsumer(session.createTopic(topicName));
         this.loggerUpdateConsumer.setMessageListener(loggerUpdateListener);
     }
 
     private void createSecureStoreUpdateConsumer(Session session, MessageListener secureStoreUpdateListener) throws JMSException {
         String topicName = secureStoreUpdateTopic.toString().replace("%application.name%",
-                        ConfigClient.getApplicationName());
+                        client.getApplicationName());
         this.secureStoreUpdateConsumer = session.createConsumer(session.createTopic(topicName));
         this.secureStoreUpdateConsumer.setMessageListener(secureStoreUpdateListener);
     }
@@ -159,13 +208,23 @@ class ConfigRefresher implements Runnable {
         }
 
         if (connection != null) {
-            try {
-                connection.close();
-                LOGGER.info("Connection closed");
-            } catch (JMSException e) {
-                LOGGER.error("Error in closing the ActiveMQ connection.", e);
-            }
+            SharedClientResources.releaseConnection(connection);
         }
+
+        refreshExecutor.shutdownNow();
+        SharedClientResources.releaseScheduler();
+    }
+
+    CoalescingRefresh getConfigRefresh() {
+        return configRefresh;
+    }
+
+    CoalescingRefresh getLoggerRefresh() {
+        return loggerRefresh;
+    }
+
+    CoalescingRefresh getSecureStoreRefresh() {
+        return secureStoreRefresh;
     }
 
 }
@@ -0,0 +1,263 @@
+package com.nextlabs.destiny.configclient;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Registry of the configuration objects and the slots of the configuration keys.
+ * <p>
+ * The configurations received from the configuration service or set by the application are strongly held. The
+ * configurations which are only created by the application with a default value, such as the configurations with
+ * dynamically built keys, are weakly held and removed when they are no longer used by the application, so the number
+ * of keys does not grow without bound. A configuration removed from the configuration service is tombstoned and
+ * strongly held for {@value #TOMBSTONE_REFRESHES} more refreshes, so a configuration which is removed and added back
+ * keeps its configuration object, and is weakly held after that.
+ * <p>
+ * The slot of a key is released when no configuration object or configuration snapshot uses the key, hence a released
+ * slot is reused for another key without the risk of reading the value of the previous key.
+ * <p>
+ * The keys of the created configurations are deduplicated with {@link ConfigStrings}.
+ */
+final class ConfigRegistry {
+
+    static final int TOMBSTONE_REFRESHES = 3;
+
+    private final Map<String, ConfigReference> configs = new ConcurrentHashMap<>();
+    private final Map<String, ConfigKeyReference> configKeys = new ConcurrentHashMap<>();
+    private final Map<String, Long> tombstones = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> referenceQueue = new ReferenceQueue<>();
+    private final ConfigKeyIndex keyIndex = new ConfigKeyIndex();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final LongAdder evictedTombstoneCount = new LongAdder();
+    private final LongAdder collectedKeyCount = new LongAdder();
+    private final Function<String, Config> configFactory;
+    private int slotCount;
+    private long refreshCount;
+
+    /**
+     * Creates a registry of the configurations created with the public Config constructors.
+     */
+    ConfigRegistry() {
+        this(Config::new);
+    }
+
+    /**
+     * Creates a registry with the given factory of the configurations retained without a default value.
+     *
+     * @param configFactory the function which creates the configuration object of a key
+     */
+    ConfigRegistry(Function<String, Config> configFactory) {
+        this.configFactory = configFactory;
+    }
+
+    /**
+     * Returns the configuration object for the given key.
+     *
+     * @param key the configuration key
+     * @return the configuration object or null if it does not exist
+     */
+    Config get(String key) {
+        expunge();
+        ConfigReference reference = configs.get(key);
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Returns the configuration object for the given key, creating it with the given function if it does not exist.
+     * A created configuration is weakly held until it is retained.
+     *
+     * @param key           the configuration key
+     * @param configFactory the function which creates the configuration object
+     * @return the configuration object
+     */
+    Config getOrCreate(String key, Function<String, Config> configFactory) {
+        Config config = get(key);
+        if (config != null) {
+            return config;
+        }
+        Config[] result = new Config[1];
+        configs.compute(ConfigStrings.dedupe(key), (configKey, current) -> {
+            Config currentConfig = current != null ? current.get() : null;
+            if (currentConfig != null) {
+                result[0] = currentConfig;
+                return current;
+            }
+            result[0] = configFactory.apply(configKey);
+            if (current == null) {
+                keyIndex.add(configKey);
+            }
+            return new ConfigReference(result[0], referenceQueue);
+        });
+        return result[0];
+    }
+
+    /**
+     * Returns the ConfigKey with the slot of the given key, assigning a slot if the key is not used.
+     *
+     * @param key the configuration key
+     * @return the ConfigKey of the key
+     */
+    ConfigKey getConfigKey(String key) {
+        ConfigKeyReference reference = configKeys.get(key);
+        ConfigKey configKey = reference != null ? reference.get() : null;
+        if (configKey != null) {
+            return configKey;
+        }
+        ConfigKey[] result = new ConfigKey[1];
+        configKeys.compute(ConfigStrings.dedupe(key), (name, current) -> {
+            ConfigKey currentKey = current != null ? current.get() : null;
+            if (currentKey != null) {
+                result[0] = currentKey;
+                return current;
+            }
+            result[0] = new ConfigKey(name, allocateSlot());
+            return new ConfigKeyReference(result[0], referenceQueue);
+        });
+        return result[0];
+    }
+
+    /**
+     * Strongly hold the configuration object of the given key and remove its tombstone. Should be called while
+     * holding the ApplicationConfigClient lock.
+     *
+     * @param key the configuration key
+     */
+    void retain(String key) {
+        Config config = getOrCreate(key, configFactory);
+        configs.get(key).config = config;
+        tombstones.remove(key);
+    }
+
+    /**
+     * Tombstone the configuration of the given key which is removed from the configurations. Should be called while
+     * holding the ApplicationConfigClient lock.
+     *
+     * @param key the configuration key
+     */
+    void tombstone(String key) {
+        tombstones.putIfAbsent(key, refreshCount);
+    }
+
+    /**
+     * Record a refresh of the configurations and stop strongly holding the configurations tombstoned for
+     * {@value #TOMBSTONE_REFRESHES} refreshes. Should be called while holding the ApplicationConfigClient lock.
+     */
+    void refreshed() {
+        refreshCount++;
+        Iterator<Map.Entry<String, Long>> iterator = tombstones.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> tombstone = iterator.next();
+            if (refreshCount - tombstone.getValue() >= TOMBSTONE_REFRESHES) {
+                iterator.remove();
+                ConfigReference reference = configs.get(tombstone.getKey());
+                if (reference != null) {
+                    reference.config = null;
+                }
+                evictedTombstoneCount.increment();
+            }
+        }
+        expunge();
+    }
+
+    /**
+     * Returns the configurations with keys starting with the given prefix in key order.
+     *
+     * @param prefix the key prefix, all configurations are returned if null or empty
+     * @return the unmodifiable list of the matching configurations
+     */
+    List<Config> getAll(String prefix) {
+        expunge();
+        return keyIndex.getAll(prefix, this::get);
+    }
+
+    /**
+     * Returns the metrics of the configuration keys.
+     *
+     * @return the configuration key metrics
+     */
+    ConfigKeyMetrics getMetrics() {
+        expunge();
+        int retainedKeyCount = 0;
+        for (ConfigReference reference : configs.values()) {
+            if (reference.config != null) {
+                retainedKeyCount++;
+            }
+        }
+        int usedSlotCount;
+        synchronized (freeSlots) {
+            usedSlotCount = slotCount - freeSlots.size();
+        }
+        return new ConfigKeyMetrics(configs.size(), retainedKeyCount, tombstones.size(), usedSlotCount,
+                evictedTombstoneCount.sum(), collectedKeyCount.sum());
+    }
+
+    private int allocateSlot() {
+        synchronized (freeSlots) {
+            Integer slot = freeSlots.poll();
+            return slot != null ? slot : slotCount++;
+        }
+    }
+
+    /**
+     * Remove the garbage collected configuration objects and release the slots of the keys which are no longer used.
+     */
+    private void expunge() {
+        Reference<?> reference;
+        while ((reference = referenceQueue.poll()) != null) {
+            if (reference instanceof ConfigReference) {
+                String key = ((ConfigReference) reference).key;
+                if (configs.remove(key, reference)) {
+                    keyIndex.remove(key);
+                    collectedKeyCount.increment();
+                }
+            } else {
+                ConfigKeyReference configKeyReference = (ConfigKeyReference) reference;
+                configKeys.remove(configKeyReference.key, configKeyReference);
+                synchronized (freeSlots) {
+                    freeSlots.push(configKeyReference.slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Weak reference to a configuration object, which also holds the configuration strongly while it is retained.
+     */
+    private static final class ConfigReference extends WeakReference<Config> {
+
+        private final String key;
+        private volatile Config config;
+
+        private ConfigReference(Config config, ReferenceQueue<Object> referenceQueue) {
+            super(config, referenceQueue);
+            this.key = config.getKey();
+        }
+
+    }
+
+    /**
+     * Weak reference to a ConfigKey with its slot, which is released when the ConfigKey is garbage collected.
+     */
+    private static final class ConfigKeyReference extends WeakReference<ConfigKey> {
+
+        private final String key;
+        private final int slot;
+
+        private ConfigKeyReference(ConfigKey configKey, ReferenceQueue<Object> referenceQueue) {
+            super(configKey, referenceQueue);
+            this.key = configKey.getKey();
+            this.slot = configKey.getSlot();
+        }
+
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * An immutable, versioned view of all configuration values. A new snapshot is published by the ConfigClient on every
+ * configuration update and a request thread pins the snapshot it first reads until the ThreadLocal values are cleared,
+ * so the configuration values stay stable within a request.
+ * <p>
+ * The values are also stored in an array indexed by the dense slot assigned to each configuration key, so a Config
+ * reads its value with a single array access instead of a hash lookup. The snapshot holds the ConfigKey of each slot,
+ * which keeps the slots of its keys from being reused while the snapshot is in use.
+ */
+public final class ConfigSnapshot {
+
+    static final ConfigSnapshot EMPTY = new ConfigSnapshot(0, Collections.emptyMap(), key -> null);
+
+    private final long version;
+    private final Map<String, ConfigValue> values;
+    private final ConfigKey[] slotKeys;
+    private final ConfigValue[] slotValues;
+
+    ConfigSnapshot(long version, Map<String, ConfigValue> values, Function<String, ConfigKey> configKeys) {
+        this.version = version;
+        this.values = Collections.unmodifiableMap(new HashMap<>(values));
+        ConfigKey[] keys = new ConfigKey[values.size()];
+        ConfigValue[] keyValues = new ConfigValue[values.size()];
+        int slotCount = 0;
+        int index = 0;
+        for (Map.Entry<String, ConfigValue> entry : values.entrySet()) {
+            keys[index] = configKeys.apply(entry.getKey());
+            keyValues[index] = entry.getValue();
+            slotCount = Math.max(slotCount, keys[index].getSlot() + 1);
+            index++;
+        }
+        this.slotKeys = new ConfigKey[slotCount];
+        this.slotValues = new ConfigValue[slotCount];
+        for (int i = 0; i < keys.length; i++) {
+            slotKeys[keys[i].getSlot()] = keys[i];
+            slotValues[keys[i].getSlot()] = keyValues[i];
+        }
+    }
+
+    /**
+     * Returns the version of the snapshot. The version is incremented with each published snapshot.
+     *
+     * @return the snapshot version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the value of the given configuration key in this snapshot.
+     *
+     * @param key the configuration key
+     * @return the configuration value or null if the key is not available in this snapshot
+     */
+    public String get(String key) {
+        ConfigValue value = values.get(key);
+        return value != null ? value.toStringValue() : null;
+    }
+
+    ConfigValue getValue(String key) {
+        return values.get(key);
+    }
+
+    /**
+     * Returns the value stored in the slot of the given key. The slots assigned after this snapshot was built are
+     * outside the array and do not have a value in this snapshot.
+     */
+    ConfigValue getValue(ConfigKey configKey) {
+        int slot = configKey.getSlot();
+        return slot < slotKeys.length && slotKeys[slot] == configKey ? slotValues[slot] : null;
+    }
+
+    /**
+     * Returns true if the given configuration key is available in this snapshot.
+     *
+     * @param key the configuration key
+     * @return true if the key is available in this snapshot
+     */
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    /**
+     * Returns the number of configurations in this snapshot.
+     *
+     * @return the number of configurations
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Returns the estimated heap footprint of this snapshot.
+     *
+     * @return the snapshot footprint
+     */
+    public SnapshotFootprint getFootprint() {
+        return SnapshotFootprint.of(version, values, slotKeys.length);
+    }
+
+    Map<String, ConfigValue> getValues() {
+        return values;
+    }
+
+}
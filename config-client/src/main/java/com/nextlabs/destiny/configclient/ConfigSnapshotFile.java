@@ -0,0 +1,121 @@
+package com.nextlabs.destiny.configclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Last known good configurations stored on disk, so the configuration client can start without waiting for the
+ * configuration service. The configurations are stored as received from the configuration service, hence the
+ * encrypted values remain encrypted in the file.
+ * <p>
+ * The file contains a magic number, the format version, the CRC32 checksum and the length of the payload, followed by
+ * the deflate compressed payload with the number of configurations and the UTF-8 encoded keys and values. A file with
+ * an invalid checksum is rejected. The file is written to a temporary file and moved in place, so a crash while writing
+ * never leaves a partially written snapshot.
+ */
+final class ConfigSnapshotFile {
+
+    private static final int MAGIC = 0x43435346;
+    private static final int FORMAT_VERSION = 1;
+
+    private ConfigSnapshotFile() {
+    }
+
+    /**
+     * Write the given configurations to the snapshot file.
+     *
+     * @param file       the snapshot file
+     * @param properties the configurations received from the configuration service
+     * @throws IOException if an error occurred when writing the file
+     */
+    static void write(Path file, Properties properties) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try (DataOutputStream outputStream = new DataOutputStream(new DeflaterOutputStream(payload))) {
+            outputStream.writeInt(properties.size());
+            for (String key : properties.stringPropertyNames()) {
+                writeString(outputStream, key);
+                writeString(outputStream, properties.getProperty(key));
+            }
+        }
+        byte[] payloadBytes = payload.toByteArray();
+        CRC32 checksum = new CRC32();
+        checksum.update(payloadBytes);
+
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(),
+                ".tmp");
+        try {
+            try (DataOutputStream outputStream = new DataOutputStream(Files.newOutputStream(tempFile))) {
+                outputStream.writeInt(MAGIC);
+                outputStream.writeInt(FORMAT_VERSION);
+                outputStream.writeLong(checksum.getValue());
+                outputStream.writeInt(payloadBytes.length);
+                outputStream.write(payloadBytes);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Read the configurations from the snapshot file.
+     *
+     * @param file the snapshot file
+     * @return the configurations as received from the configuration service
+     * @throws IOException if an error occurred when reading the file or the file is not a valid snapshot
+     */
+    static Properties read(Path file) throws IOException {
+        byte[] payloadBytes;
+        long expectedChecksum;
+        try (DataInputStream inputStream = new DataInputStream(Files.newInputStream(file))) {
+            if (inputStream.readInt() != MAGIC || inputStream.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a configuration snapshot file: " + file);
+            }
+            expectedChecksum = inputStream.readLong();
+            int length = inputStream.readInt();
+            if (length < 0 || length > Files.size(file)) {
+                throw new IOException("Invalid configuration snapshot length: " + file);
+            }
+            payloadBytes = new byte[length];
+            inputStream.readFully(payloadBytes);
+        }
+        CRC32 checksum = new CRC32();
+        checksum.update(payloadBytes);
+        if (checksum.getValue() != expectedChecksum) {
+            throw new IOException("Configuration snapshot checksum mismatch: " + file);
+        }
+        Properties properties = new Properties();
+        try (DataInputStream inputStream = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(payloadBytes)))) {
+            int size = inputStream.readInt();
+            for (int i = 0; i < size; i++) {
+                properties.setProperty(readString(inputStream), readString(inputStream));
+            }
+        }
+        return properties;
+    }
+
+    private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static String readString(DataInputStream inputStream) throws IOException {
+        byte[] bytes = new byte[inputStream.readInt()];
+        inputStream.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,25 @@
+package com.nextlabs.destiny.configclient;
+
+/**
+ * Deduplicates the configuration keys and values. The strings are interned, so equal keys and values share a single
+ * instance in the JVM, also across the applications which load their own copy of the config-client in the same JVM.
+ * The long values are rarely repeated and are not interned to keep the string table small.
+ */
+final class ConfigStrings {
+
+    static final int MAX_INTERNED_LENGTH = 256;
+
+    private ConfigStrings() {
+    }
+
+    /**
+     * Returns the shared instance of the given key or value.
+     *
+     * @param value the key or value
+     * @return the interned value, or the given value if it is null or longer than {@value #MAX_INTERNED_LENGTH}
+     */
+    static String dedupe(String value) {
+        return value == null || value.length() > MAX_INTERNED_LENGTH ? value : value.intern();
+    }
+
+}
@@ -0,0 +1,209 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * A configuration value together with its parsed primitive forms. A plain value is parsed once when it is created, so
+ * the typed accessors of Config return primitives without parsing the String on every call.
+ * <p>
+ * An encrypted value keeps the ciphertext as its source and is decrypted and parsed when it is first accessed, so the
+ * values which are never read are never decrypted. The configuration values are reused across refreshes while their
+ * source does not change, hence an unchanged encrypted value is decrypted at most once. The decrypted value is
+ * cleared when the encrypted value is replaced and decrypted again only if it is still accessed through an older
+ * snapshot.
+ */
+final class ConfigValue {
+
+    static final ConfigValue NULL = new ConfigValue(null);
+
+    private static final int INT = 1;
+    private static final int LONG = 1 << 1;
+    private static final int DOUBLE = 1 << 2;
+
+    private final String source;
+    private final UnaryOperator<String> decryptor;
+    // Racy single-check initialization like String.hashCode, Parsed is immutable and safely published
+    private Parsed parsed;
+
+    ConfigValue(String stringValue) {
+        this.source = stringValue;
+        this.decryptor = null;
+        this.parsed = new Parsed(stringValue);
+    }
+
+    private ConfigValue(String source, UnaryOperator<String> decryptor) {
+        this.source = source;
+        this.decryptor = decryptor;
+    }
+
+    /**
+     * Creates a configuration value which is decrypted when it is first accessed.
+     *
+     * @param source    the encrypted value
+     * @param decryptor the function which returns the value for the encrypted value
+     * @return the configuration value
+     */
+    static ConfigValue encrypted(String source, UnaryOperator<String> decryptor) {
+        return new ConfigValue(source, decryptor);
+    }
+
+    /**
+     * Returns the value as received, which is the ciphertext for an encrypted value. Configuration values with equal
+     * sources have equal values.
+     */
+    String getSource() {
+        return source;
+    }
+
+    boolean isEncrypted() {
+        return decryptor != null;
+    }
+
+    /**
+     * Clear the decrypted value of an encrypted value.
+     */
+    void clear() {
+        if (decryptor != null) {
+            parsed = null;
+        }
+    }
+
+    private Parsed parsed() {
+        Parsed value = parsed;
+        if (value == null) {
+            value = new Parsed(decryptor.apply(source));
+            parsed = value;
+        }
+        return value;
+    }
+
+    String toStringValue() {
+        return parsed().stringValue;
+    }
+
+    boolean isEmpty() {
+        String stringValue = decryptor == null ? source : parsed().stringValue;
+        return stringValue == null || stringValue.isEmpty();
+    }
+
+    boolean isInt() {
+        return (parsed().parsedTypes & INT) != 0;
+    }
+
+    boolean isLong() {
+        return (parsed().parsedTypes & LONG) != 0;
+    }
+
+    boolean isDouble() {
+        return (parsed().parsedTypes & DOUBLE) != 0;
+    }
+
+    /**
+     * Returns true if this value can be read as every number type the given value can be read as.
+     */
+    boolean hasNumberTypesOf(ConfigValue value) {
+        return (value.parsed().parsedTypes & ~parsed().parsedTypes) == 0;
+    }
+
+    int toInt() {
+        return parsed().intValue;
+    }
+
+    long toLong() {
+        return parsed().longValue;
+    }
+
+    double toDouble() {
+        return parsed().doubleValue;
+    }
+
+    boolean toBoolean() {
+        return parsed().booleanValue;
+    }
+
+    /**
+     * Returns true if the value may be parsed as a long. This check avoids the cost of the NumberFormatException for
+     * values which are clearly not numbers.
+     */
+    private static boolean isInteger(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        int start = value.charAt(0) == '-' || value.charAt(0) == '+' ? 1 : 0;
+        if (start == value.length()) {
+            return false;
+        }
+        for (int i = start; i < value.length(); i++) {
+            if (!Character.isDigit(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the value may be parsed as a double. Double.parseDouble trims the value and accepts decimal,
+     * hexadecimal, NaN and Infinity forms, hence only the first non whitespace character is checked.
+     */
+    private static boolean isDecimal(String value) {
+        if (value == null) {
+            return false;
+        }
+        String trimmedValue = value.trim();
+        if (trimmedValue.isEmpty()) {
+            return false;
+        }
+        char first = trimmedValue.charAt(0);
+        return Character.isDigit(first) || first == '-' || first == '+' || first == '.' || first == 'N'
+                || first == 'I';
+    }
+
+    /**
+     * The value and its parsed primitive forms.
+     */
+    private static final class Parsed {
+
+        private final String stringValue;
+        private final int parsedTypes;
+        private final int intValue;
+        private final long longValue;
+        private final double doubleValue;
+        private final boolean booleanValue;
+
+        private Parsed(String stringValue) {
+            this.stringValue = stringValue;
+            this.booleanValue = Boolean.parseBoolean(stringValue);
+            int types = 0;
+            long parsedLong = 0;
+            if (isInteger(stringValue)) {
+                try {
+                    parsedLong = Long.parseLong(stringValue);
+                    types |= LONG;
+                    if (parsedLong >= Integer.MIN_VALUE && parsedLong <= Integer.MAX_VALUE) {
+                        types |= INT;
+                    }
+                } catch (NumberFormatException e) {
+                    // Out of the long range, may still be a double
+                }
+            }
+            double parsedDouble = 0;
+            if ((types & LONG) != 0) {
+                parsedDouble = parsedLong;
+                types |= DOUBLE;
+            } else if (isDecimal(stringValue)) {
+                try {
+                    parsedDouble = Double.parseDouble(stringValue);
+                    types |= DOUBLE;
+                } catch (NumberFormatException e) {
+                    // Not a double value
+                }
+            }
+            this.parsedTypes = types;
+            this.longValue = parsedLong;
+            this.intValue = (int) parsedLong;
+            this.doubleValue = parsedDouble;
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * Replaces the ${name} placeholders of configuration values in a single pass over the value. Each placeholder is
+ * resolved with a direct lookup, so the cost depends on the length of the value and not on the number of the
+ * properties which can be referenced.
+ * <p>
+ * A placeholder which cannot be resolved and an unterminated placeholder are kept as they are. A placeholder prefixed
+ * with an additional $, such as $${name}, is escaped and replaced with ${name} without resolving. The resolved values
+ * are not interpolated again.
+ */
+final class Interpolator {
+
+    private static final String PLACEHOLDER_PREFIX = "${";
+    private static final char PLACEHOLDER_SUFFIX = '}';
+    private static final char ESCAPE = '$';
+
+    private Interpolator() {
+    }
+
+    /**
+     * Interpolate the given value.
+     *
+     * @param value    the value with placeholders
+     * @param resolver the function which returns the value of a placeholder name or null if it is not defined
+     * @return the interpolated value, which is the given value if it has no placeholders
+     */
+    static String interpolate(String value, UnaryOperator<String> resolver) {
+        int placeholderIndex = value.indexOf(PLACEHOLDER_PREFIX);
+        if (placeholderIndex < 0) {
+            return value;
+        }
+        StringBuilder builder = new StringBuilder(value.length() + 32);
+        int position = 0;
+        while (placeholderIndex >= 0) {
+            int nameIndex = placeholderIndex + PLACEHOLDER_PREFIX.length();
+            int endIndex = value.indexOf(PLACEHOLDER_SUFFIX, nameIndex);
+            if (endIndex < 0) {
+                break;
+            }
+            if (placeholderIndex > position && value.charAt(placeholderIndex - 1) == ESCAPE) {
+                builder.append(value, position, placeholderIndex - 1)
+                        .append(value, placeholderIndex, endIndex + 1);
+            } else {
+                String resolvedValue = resolver.apply(value.substring(nameIndex, endIndex));
+                builder.append(value, position, placeholderIndex);
+                if (resolvedValue != null) {
+                    builder.append(resolvedValue);
+                } else {
+                    builder.append(value, placeholderIndex, endIndex + 1);
+                }
+            }
+            position = endIndex + 1;
+            placeholderIndex = value.indexOf(PLACEHOLDER_PREFIX, position);
+        }
+        return builder.append(value, position, value.length()).toString();
+    }
+
+}
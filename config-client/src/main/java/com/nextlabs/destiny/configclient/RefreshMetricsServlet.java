@@ -0,0 +1,30 @@
+package com.nextlabs.destiny.configclient;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.nextlabs.cc.common.metrics.MetricsRegistry;
+
+/**
+ * Servlet writing the refresh metrics of the configuration clients and the log manager client in the Prometheus text
+ * exposition format. The servlet is not mapped by default and can be mapped by the application to expose the metrics
+ * over HTTP in addition to JMX.
+ */
+public class RefreshMetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(CONTENT_TYPE);
+        try (Writer writer = response.getWriter()) {
+            MetricsRegistry.writePrometheusText(writer);
+        }
+    }
+
+}
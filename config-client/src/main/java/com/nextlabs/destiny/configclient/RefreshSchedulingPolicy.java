@@ -0,0 +1,76 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy to delay refreshes triggered by update messages. The update messages are broadcast to all the nodes and
+ * delaying the refreshes within a window spreads the requests to the configuration service over the window, while the
+ * window keeps the propagation time of the updates bounded.
+ */
+@FunctionalInterface
+public interface RefreshSchedulingPolicy {
+
+    /**
+     * Policy which does not delay the refreshes.
+     */
+    RefreshSchedulingPolicy IMMEDIATE = () -> 0;
+
+    /**
+     * Returns the delay in milliseconds to apply before the next refresh.
+     *
+     * @return the delay in milliseconds
+     */
+    long getDelay();
+
+    /**
+     * Returns a policy which delays each refresh by a random time within the given window.
+     *
+     * @param windowMillis the window in milliseconds
+     * @return the refresh scheduling policy
+     */
+    static RefreshSchedulingPolicy random(long windowMillis) {
+        if (windowMillis <= 0) {
+            return IMMEDIATE;
+        }
+        return () -> ThreadLocalRandom.current().nextLong(windowMillis);
+    }
+
+    /**
+     * Returns a policy which delays the refreshes by a fixed slot within the given window computed from the hash of
+     * the hostname, so the nodes of a cluster refresh in a stable order spread over the window. The refreshes are
+     * delayed by a random time within the window if the hostname is empty, as all the nodes would get the same slot.
+     *
+     * @param hostname     the hostname of the node
+     * @param windowMillis the window in milliseconds
+     * @return the refresh scheduling policy
+     */
+    static RefreshSchedulingPolicy hostnameSlot(String hostname, long windowMillis) {
+        if (windowMillis <= 0) {
+            return IMMEDIATE;
+        }
+        if (hostname == null || hostname.trim().isEmpty()) {
+            return random(windowMillis);
+        }
+        long hash = hostname.hashCode() * 0x9E3779B97F4A7C15L;
+        long delay = Math.floorMod(hash ^ (hash >>> 32), windowMillis);
+        return () -> delay;
+    }
+
+    /**
+     * Returns the policy with the given name. The supported names are immediate, random and hostname.
+     *
+     * @param name         the policy name
+     * @param hostname     the hostname of the node used by the hostname policy
+     * @param windowMillis the window in milliseconds
+     * @return the refresh scheduling policy
+     */
+    static RefreshSchedulingPolicy of(String name, String hostname, long windowMillis) {
+        if ("random".equalsIgnoreCase(name)) {
+            return random(windowMillis);
+        } else if ("hostname".equalsIgnoreCase(name)) {
+            return hostnameSlot(hostname, windowMillis);
+        }
+        return IMMEDIATE;
+    }
+
+}
@@ -0,0 +1,258 @@
+package com.nextlabs.destiny.configclient;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.nextlabs.cc.common.http.HttpTransport;
+import com.nextlabs.cc.common.metrics.MetricsRegistry;
+import com.nextlabs.cc.common.metrics.RefreshMetrics;
+import com.nextlabs.cc.common.retry.RetryPolicy;
+import com.nextlabs.destiny.logmanager.LogManagerClient;
+
+/**
+ * The resources shared by the configuration clients of the applications in the JVM, which are the HTTP transports to
+ * the configuration services, the ActiveMQ broker connections and the refreshes which are not specific to an
+ * application, such as the logger configurations and the secure stores, together with their scheduler. The refreshes of
+ * the configurations of each application run on the executor of the application, so a slow refresh of an application
+ * does not delay the refreshes of the other applications. The resources are shared by the applications which load the
+ * config-client with the same class loader, such as from the shared library directory of the container.
+ * <p>
+ * A transport is shared by the applications with the same URL, credentials, retry policy settings and timeouts. The
+ * broker connections, the shared refresh scheduler and the log manager client are reference counted and closed when
+ * the last application releases them.
+ * <p>
+ * The shared refreshes are not bound to the application which created them, so they keep working when that
+ * application is closed. The logger configurations are refreshed with the transport of the log manager client and the
+ * secure stores with the transport of the application requesting the refresh, one refresh for each transport. A shared
+ * refresh is created with the debounce and scheduling settings of the first application which requests it, and the
+ * settings of the other applications are ignored.
+ */
+final class SharedClientResources {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedClientResources.class);
+    private static final int SHARED_REFRESH_THREADS = 2;
+    private static final String SECURE_STORE_METRICS_NAME = "secure-stores";
+    private static final Map<String, HttpTransport> transports = new ConcurrentHashMap<>();
+    private static final Map<String, SharedConnection> connections = new HashMap<>();
+    private static final Map<Connection, SharedConnection> connectionUsers = new IdentityHashMap<>();
+    private static final Map<String, CoalescingRefresh> refreshes = new HashMap<>();
+    private static final Map<HttpTransport, CoalescingRefresh> secureStoreRefreshes = new IdentityHashMap<>();
+    private static RefreshMetrics secureStoreMetrics;
+    private static ScheduledExecutorService scheduler;
+    private static int schedulerUsers;
+    private static int logManagerUsers;
+
+    private SharedClientResources() {
+    }
+
+    /**
+     * Returns the HTTP transport to the configuration service with the given URL, credentials, retry policy settings
+     * and timeouts, creating it if it does not exist.
+     *
+     * @param url                  the URL of the configuration service
+     * @param username             the username
+     * @param password             the password in plain text
+     * @param retryPolicy          the retry policy used if the transport is created
+     * @param connectTimeoutMillis the connect timeout in milliseconds used if the transport is created
+     * @param readTimeoutMillis    the read timeout in milliseconds used if the transport is created
+     * @return the shared transport
+     */
+    static HttpTransport getTransport(String url, String username, String password, RetryPolicy retryPolicy,
+                                      int connectTimeoutMillis, int readTimeoutMillis) {
+        String transportKey = String.join("\n", url, String.valueOf(username), digest(password),
+                retryPolicy.toString(), String.valueOf(connectTimeoutMillis), String.valueOf(readTimeoutMillis));
+        return transports.computeIfAbsent(transportKey, key -> new HttpTransport(url, username, password,
+                retryPolicy, (attempt, delay, e) ->
+                LOGGER.warn(String.format("Connection failed. Retrying in %d ms.", delay), e),
+                connectTimeoutMillis, readTimeoutMillis));
+    }
+
+    /**
+     * Returns the started broker connection with the given key, creating it with the given factory if it does not
+     * exist. The connection should be released with {@link #releaseConnection(Connection)}.
+     *
+     * @param key               the key of the connection, such as the broker URL
+     * @param connectionFactory the function which creates the connection
+     * @return the shared connection
+     * @throws JMSException if the connection could not be created
+     */
+    static synchronized Connection acquireConnection(String key, ConnectionFactory connectionFactory)
+            throws JMSException {
+        SharedConnection sharedConnection = connections.get(key);
+        if (sharedConnection == null) {
+            Connection connection = connectionFactory.create();
+            connection.start();
+            sharedConnection = new SharedConnection(key, connection);
+            connections.put(key, sharedConnection);
+            connectionUsers.put(connection, sharedConnection);
+        }
+        sharedConnection.users++;
+        return sharedConnection.connection;
+    }
+
+    /**
+     * Release the given broker connection, which is closed if no other application uses it.
+     *
+     * @param connection the connection to release
+     */
+    static synchronized void releaseConnection(Connection connection) {
+        SharedConnection sharedConnection = connectionUsers.get(connection);
+        if (sharedConnection == null || --sharedConnection.users > 0) {
+            return;
+        }
+        connectionUsers.remove(connection);
+        connections.remove(sharedConnection.key);
+        try {
+            connection.close();
+            LOGGER.info("Connection closed");
+        } catch (JMSException e) {
+            LOGGER.error("Error in closing the ActiveMQ connection.", e);
+        }
+    }
+
+    /**
+     * Returns the scheduler of the shared refreshes, creating it if it does not exist. The scheduler has a thread for
+     * each shared refresh, so a shared refresh which is retrying does not delay the other. The scheduler should be
+     * released with {@link #releaseScheduler()}.
+     *
+     * @return the shared refresh scheduler
+     */
+    static synchronized ScheduledExecutorService acquireScheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newScheduledThreadPool(SHARED_REFRESH_THREADS, runnable -> {
+                Thread thread = new Thread(runnable, "config-shared-refresher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        schedulerUsers++;
+        return scheduler;
+    }
+
+    /**
+     * Release the refresh scheduler, which is shut down together with the shared refreshes if no other application
+     * uses it.
+     */
+    static synchronized void releaseScheduler() {
+        if (scheduler == null || --schedulerUsers > 0) {
+            return;
+        }
+        scheduler.shutdownNow();
+        scheduler = null;
+        refreshes.clear();
+        secureStoreRefreshes.clear();
+        if (secureStoreMetrics != null) {
+            MetricsRegistry.unregister(SECURE_STORE_METRICS_NAME);
+            secureStoreMetrics = null;
+        }
+    }
+
+    /**
+     * Record that an application uses the log manager client. The log manager client should be released with
+     * {@link #releaseLogManager()}.
+     */
+    static synchronized void acquireLogManager() {
+        logManagerUsers++;
+    }
+
+    /**
+     * Release the log manager client, which is closed if no other application uses it.
+     */
+    static synchronized void releaseLogManager() {
+        if (logManagerUsers == 0 || --logManagerUsers > 0) {
+            return;
+        }
+        LogManagerClient.close();
+    }
+
+    /**
+     * Returns the shared refresh with the given name, creating it with the given function if it does not exist. The
+     * refresh requests of all the applications are coalesced into the shared refresh, hence a refresh which is not
+     * specific to an application is performed once for all the applications. The refresh should not refer to the
+     * application which creates it. The shared refreshes are removed when the refresh scheduler is shut down.
+     *
+     * @param name           the refresh name
+     * @param refreshFactory the function which creates the refresh using the shared scheduler
+     * @return the shared refresh
+     */
+    static synchronized CoalescingRefresh getRefresh(String name, Supplier<CoalescingRefresh> refreshFactory) {
+        return refreshes.computeIfAbsent(name, key -> refreshFactory.get());
+    }
+
+    /**
+     * Returns the shared refresh of the secure stores downloaded with the given transport, creating it with the given
+     * settings on the shared scheduler if it does not exist. The refresh stages are recorded in the metrics registered
+     * as "secure-stores". Should be called while the shared scheduler is acquired.
+     *
+     * @param transport        the transport to the configuration service
+     * @param debounceMillis   the debounce window in milliseconds used if the refresh is created
+     * @param schedulingPolicy the scheduling policy used if the refresh is created
+     * @return the shared secure stores refresh
+     */
+    static synchronized CoalescingRefresh getSecureStoreRefresh(HttpTransport transport, long debounceMillis,
+                                                                RefreshSchedulingPolicy schedulingPolicy) {
+        return secureStoreRefreshes.computeIfAbsent(transport, key -> {
+            if (secureStoreMetrics == null) {
+                secureStoreMetrics = new RefreshMetrics();
+                if (!MetricsRegistry.register(SECURE_STORE_METRICS_NAME, secureStoreMetrics)) {
+                    LOGGER.debug("Refresh metrics of the secure stores are not registered in the MBean server");
+                }
+            }
+            RefreshMetrics metrics = secureStoreMetrics;
+            return new CoalescingRefresh("secure stores",
+                    () -> ApplicationConfigClient.downloadSecureStore(transport, metrics), scheduler, debounceMillis,
+                    schedulingPolicy);
+        });
+    }
+
+    private static String digest(String password) {
+        if (password == null) {
+            return "";
+        }
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256")
+                    .digest(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+
+    /**
+     * Creates a broker connection.
+     */
+    @FunctionalInterface
+    interface ConnectionFactory {
+
+        Connection create() throws JMSException;
+
+    }
+
+    private static final class SharedConnection {
+
+        private final String key;
+        private final Connection connection;
+        private int users;
+
+        private SharedConnection(String key, Connection connection) {
+            this.key = key;
+            this.connection = connection;
+        }
+
+    }
+
+}
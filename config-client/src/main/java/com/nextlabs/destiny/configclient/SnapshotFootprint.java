@@ -0,0 +1,166 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimated heap footprint of a configuration snapshot. The sizes are estimated for a 64 bit JVM with compressed
+ * references and compact strings. The objects shared by several configurations, such as the deduplicated keys and
+ * values, are counted once, and the footprint without sharing counts them for each configuration. The decrypted
+ * values are not counted since they are cleared when the encrypted values are replaced.
+ */
+public final class SnapshotFootprint {
+
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    private static final int STRING = 24;
+    private static final int CONFIG_VALUE = 24;
+    private static final int PARSED_VALUE = 48;
+    private static final int MAP_ENTRY = 32;
+
+    private final long version;
+    private final int configurationCount;
+    private final int distinctValueCount;
+    private final int sharedValueCount;
+    private final long estimatedBytes;
+    private final long estimatedBytesWithoutSharing;
+
+    private SnapshotFootprint(long version, int configurationCount, int distinctValueCount, int sharedValueCount,
+                              long estimatedBytes, long estimatedBytesWithoutSharing) {
+        this.version = version;
+        this.configurationCount = configurationCount;
+        this.distinctValueCount = distinctValueCount;
+        this.sharedValueCount = sharedValueCount;
+        this.estimatedBytes = estimatedBytes;
+        this.estimatedBytesWithoutSharing = estimatedBytesWithoutSharing;
+    }
+
+    /**
+     * Estimate the footprint of the given values of a snapshot.
+     *
+     * @param version   the snapshot version
+     * @param values    the configuration values
+     * @param slotCount the length of the slot arrays of the snapshot
+     * @return the footprint
+     */
+    static SnapshotFootprint of(long version, Map<String, ConfigValue> values, int slotCount) {
+        Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+        long tableBytes = ARRAY_HEADER + (long) REFERENCE * tableSize(values.size())
+                + 2 * align(ARRAY_HEADER + (long) REFERENCE * slotCount);
+        long bytes = tableBytes;
+        long bytesWithoutSharing = tableBytes;
+        int sharedValueCount = 0;
+        for (Map.Entry<String, ConfigValue> entry : values.entrySet()) {
+            bytes += MAP_ENTRY;
+            bytesWithoutSharing += MAP_ENTRY;
+            long keyBytes = sizeOf(entry.getKey());
+            bytesWithoutSharing += keyBytes;
+            if (counted.add(entry.getKey())) {
+                bytes += keyBytes;
+            }
+            ConfigValue value = entry.getValue();
+            long valueBytes = sizeOf(value);
+            bytesWithoutSharing += valueBytes;
+            if (counted.add(value)) {
+                bytes += valueBytes;
+            } else {
+                sharedValueCount++;
+            }
+        }
+        int distinctValueCount = values.size() - sharedValueCount;
+        return new SnapshotFootprint(version, values.size(), distinctValueCount, sharedValueCount, bytes,
+                bytesWithoutSharing);
+    }
+
+    private static long sizeOf(ConfigValue value) {
+        long bytes = CONFIG_VALUE;
+        if (!value.isEncrypted()) {
+            bytes += PARSED_VALUE;
+        }
+        return bytes + sizeOf(value.getSource());
+    }
+
+    private static long sizeOf(String value) {
+        if (value == null) {
+            return 0;
+        }
+        boolean latin1 = value.chars().allMatch(c -> c < 256);
+        return STRING + align(ARRAY_HEADER + (long) value.length() * (latin1 ? 1 : 2));
+    }
+
+    private static int tableSize(int size) {
+        int tableSize = 16;
+        while (tableSize * 0.75 < size) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * Returns the version of the snapshot.
+     *
+     * @return the snapshot version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the number of configurations in the snapshot.
+     *
+     * @return the number of configurations
+     */
+    public int getConfigurationCount() {
+        return configurationCount;
+    }
+
+    /**
+     * Returns the number of distinct configuration value objects in the snapshot.
+     *
+     * @return the number of distinct values
+     */
+    public int getDistinctValueCount() {
+        return distinctValueCount;
+    }
+
+    /**
+     * Returns the number of configurations which share their value object with another configuration.
+     *
+     * @return the number of shared values
+     */
+    public int getSharedValueCount() {
+        return sharedValueCount;
+    }
+
+    /**
+     * Returns the estimated heap footprint of the snapshot in bytes, counting the shared objects once.
+     *
+     * @return the estimated footprint in bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Returns the estimated heap footprint of the snapshot in bytes if the keys and values were not shared.
+     *
+     * @return the estimated footprint without sharing in bytes
+     */
+    public long getEstimatedBytesWithoutSharing() {
+        return estimatedBytesWithoutSharing;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("version=%d, configurations=%d, distinctValues=%d, sharedValues=%d, estimatedBytes=%d, "
+                        + "estimatedBytesWithoutSharing=%d", version, configurationCount, distinctValueCount,
+                sharedValueCount, estimatedBytes, estimatedBytesWithoutSharing);
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.nextlabs.destiny.configclient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timeline of the configuration client startup. Each stage records when it started relative to the start of the
+ * initialization and how long it took, so the startup time can be tracked and the stages which delay the startup can
+ * be identified.
+ */
+final class StartupTimeline {
+
+    private final long startNanos = System.nanoTime();
+    private final List<Stage> stages = new ArrayList<>();
+
+    /**
+     * Start a new stage.
+     *
+     * @param name the stage name
+     * @return the started stage
+     */
+    synchronized Stage start(String name) {
+        Stage stage = new Stage(name, System.nanoTime());
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * Returns the time in milliseconds elapsed since the start of the initialization.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : stages) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(stage.name)
+                    .append(" at ").append(TimeUnit.NANOSECONDS.toMillis(stage.startNanos - startNanos)).append(" ms");
+            if (stage.endNanos == 0) {
+                builder.append(" not completed");
+            } else {
+                builder.append(" took ").append(TimeUnit.NANOSECONDS.toMillis(stage.endNanos - stage.startNanos))
+                        .append(" ms");
+                if (stage.failed) {
+                    builder.append(" (failed)");
+                }
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A stage of the startup.
+     */
+    final class Stage {
+
+        private final String name;
+        private final long startNanos;
+        private long endNanos;
+        private boolean failed;
+
+        private Stage(String name, long startNanos) {
+            this.name = name;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Record the end of the stage.
+         *
+         * @param failed true if the stage failed
+         */
+        void end(boolean failed) {
+            synchronized (StartupTimeline.this) {
+                this.endNanos = System.nanoTime();
+                this.failed = failed;
+            }
+        }
+
+    }
+
+}
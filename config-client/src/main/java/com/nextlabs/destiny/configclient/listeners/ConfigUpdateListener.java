@@ -8,7 +8,7 @@ import org.apache.activemq.command.ActiveMQTextMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.nextlabs.destiny.configclient.ConfigClient;
+import com.nextlabs.destiny.configclient.CoalescingRefresh;
 
 /**
  * Listen for configuration updates and perform configuration refresh.
@@ -20,6 +20,12 @@ public class ConfigUpdateListener implements MessageListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(ConfigUpdateListener.class);
     private static final String CONFIG_UPDATED_MESSAGE = "CONFIG_UPDATED";
 
+    private final CoalescingRefresh refresh;
+
+    public ConfigUpdateListener(CoalescingRefresh refresh) {
+        this.refresh = refresh;
+    }
+
     @Override
     public void onMessage(Message message) {
         try {
@@ -27,7 +33,7 @@ public class ConfigUpdateListener implements MessageListener {
                 ActiveMQTextMessage textMessage = (ActiveMQTextMessage) message;
                 if (textMessage.getText() != null && textMessage.getText().contains(CONFIG_UPDATED_MESSAGE)) {
                     LOGGER.info("Configuration update message received: {}", textMessage.getText());
-                    ConfigClient.refresh();
+                    refresh.request();
                 }
             }
         } catch (JMSException e) {
@@ -8,7 +8,7 @@ import org.apache.activemq.command.ActiveMQTextMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.nextlabs.destiny.logmanager.LogManagerClient;
+import com.nextlabs.destiny.configclient.CoalescingRefresh;
 
 /**
  * Listen for logger configuration updates and perform logger configuration refresh.
@@ -20,6 +20,12 @@ public class LoggerUpdateListener implements MessageListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(LoggerUpdateListener.class);
     private static final String LOGGER_UPDATED_MESSAGE = "LOGGER_UPDATED";
 
+    private final CoalescingRefresh refresh;
+
+    public LoggerUpdateListener(CoalescingRefresh refresh) {
+        this.refresh = refresh;
+    }
+
     @Override
     public void onMessage(Message message) {
         try {
@@ -27,7 +33,7 @@ public class LoggerUpdateListener implements MessageListener {
                 ActiveMQTextMessage textMessage = (ActiveMQTextMessage) message;
                 if (textMessage.getText() != null && textMessage.getText().contains(LOGGER_UPDATED_MESSAGE)) {
                     LOGGER.info("Logger update message received: {}", textMessage.getText());
-                    LogManagerClient.refresh();
+                    refresh.request();
                 }
             }
         } catch (JMSException e) {
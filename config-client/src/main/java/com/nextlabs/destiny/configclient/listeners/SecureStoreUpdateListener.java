@@ -1,6 +1,6 @@
 package com.nextlabs.destiny.configclient.listeners;
 
-import com.nextlabs.destiny.configclient.ConfigClient;
+import com.nextlabs.destiny.configclient.CoalescingRefresh;
 import org.apache.activemq.command.ActiveMQTextMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +13,12 @@ public class SecureStoreUpdateListener implements MessageListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(SecureStoreUpdateListener.class);
     private static final String SECURE_STORE_UPDATED_MESSAGE = "SECURE_STORE_UPDATED";
 
+    private final CoalescingRefresh refresh;
+
+    public SecureStoreUpdateListener(CoalescingRefresh refresh) {
+        this.refresh = refresh;
+    }
+
     @Override
     public void onMessage(Message message) {
         try {
@@ -20,7 +26,7 @@ public class SecureStoreUpdateListener implements MessageListener {
                 ActiveMQTextMessage textMessage = (ActiveMQTextMessage) message;
                 if (textMessage.getText() != null && textMessage.getText().contains(SECURE_STORE_UPDATED_MESSAGE)) {
                     LOGGER.info("Secure store update message received: {}", textMessage.getText());
-                    ConfigClient.downloadSecureStore();
+                    refresh.request();
                 }
             }
         } catch (JMSException e) {
@@ -0,0 +1,218 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.nextlabs.cc.common.http.HttpTransport;
+import com.nextlabs.cc.common.metrics.MetricsRegistry;
+import com.nextlabs.cc.common.metrics.RefreshMetrics;
+import com.nextlabs.cc.common.retry.RetryPolicy;
+import com.nextlabs.destiny.logmanager.LogManagerClient;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the configuration clients of multiple applications in the same JVM.
+ */
+public class ApplicationConfigClientTest {
+
+    private static final String FIRST_APPLICATION = "application-client-test-first";
+    private static final String SECOND_APPLICATION = "application-client-test-second";
+
+    private final AtomicInteger secureStoreRequests = new AtomicInteger();
+    private HttpServer server;
+    private String bootstrapLocation;
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        for (String applicationName : new String[]{FIRST_APPLICATION, SECOND_APPLICATION}) {
+            server.createContext(String.format("/config-service/%s-default.properties", applicationName), exchange -> {
+                byte[] content = String.format("application.client.test.name=%s", applicationName)
+                        .getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(content);
+                }
+                exchange.close();
+            });
+        }
+        server.createContext("/config-service/secure-store/download", exchange -> {
+            secureStoreRequests.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+
+        File bootstrapFile = File.createTempFile("bootstrap", ".properties");
+        bootstrapFile.deleteOnExit();
+        Properties bootstrapProperties = new Properties();
+        bootstrapProperties.setProperty("spring.cloud.config.uri",
+                String.format("http://localhost:%d/config-service", server.getAddress().getPort()));
+        bootstrapProperties.setProperty("spring.cloud.config.username", "config-client");
+        bootstrapProperties.setProperty("spring.cloud.config.password", "password");
+        bootstrapProperties.setProperty("spring.cloud.config.snapshot.enabled", "false");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(bootstrapFile)) {
+            bootstrapProperties.store(fileOutputStream, null);
+        }
+        bootstrapLocation = System.getProperty("spring.cloud.bootstrap.location");
+        System.setProperty("spring.cloud.bootstrap.location", bootstrapFile.getAbsolutePath());
+        System.clearProperty("server.config.path");
+    }
+
+    @After
+    public void after() {
+        ConfigClient.forApplication(FIRST_APPLICATION).close();
+        ConfigClient.forApplication(SECOND_APPLICATION).close();
+        server.stop(0);
+        if (bootstrapLocation != null) {
+            System.setProperty("spring.cloud.bootstrap.location", bootstrapLocation);
+        }
+    }
+
+    @Test
+    public void testApplicationsHaveSeparateConfigurations() throws IOException {
+        ApplicationConfigClient first = ConfigClient.forApplication(FIRST_APPLICATION);
+        ApplicationConfigClient second = ConfigClient.forApplication(SECOND_APPLICATION);
+        assertSame(first, ConfigClient.forApplication(FIRST_APPLICATION));
+        assertNotSame(first, second);
+
+        first.init();
+        second.init();
+        Config firstName = first.get("application.client.test.name");
+        Config secondName = second.get("application.client.test.name");
+        assertEquals(FIRST_APPLICATION, firstName.toString(false));
+        assertEquals(SECOND_APPLICATION, secondName.toString(false));
+        assertNull(ConfigClient.getSnapshot().get("application.client.test.name"));
+
+        firstName.setValue("changed");
+        assertEquals("changed", firstName.toString(false));
+        assertEquals(SECOND_APPLICATION, secondName.toString(false));
+    }
+
+    @Test
+    public void testApplicationsShareTransport() throws IOException {
+        ApplicationConfigClient first = ConfigClient.forApplication(FIRST_APPLICATION);
+        ApplicationConfigClient second = ConfigClient.forApplication(SECOND_APPLICATION);
+        first.init();
+        second.init();
+        assertSame(first.getTransport(), second.getTransport());
+        assertSame(first.getRetryPolicy(), second.getRetryPolicy());
+    }
+
+    @Test
+    public void testTransportsWithDifferentSettingsAreNotShared() {
+        String url = String.format("http://localhost:%d/config-service", server.getAddress().getPort());
+        Properties retryProperties = new Properties();
+        HttpTransport transport = SharedClientResources.getTransport(url, "config-client", "password",
+                RetryPolicy.fromProperties(retryProperties, ""), 1000, 1000);
+        assertSame(transport, SharedClientResources.getTransport(url, "config-client", "password",
+                RetryPolicy.fromProperties(retryProperties, ""), 1000, 1000));
+        assertNotSame(transport, SharedClientResources.getTransport(url, "config-client", "changed",
+                RetryPolicy.fromProperties(retryProperties, ""), 1000, 1000));
+        retryProperties.setProperty("retry.max-attempts", "1");
+        assertNotSame(transport, SharedClientResources.getTransport(url, "config-client", "password",
+                RetryPolicy.fromProperties(retryProperties, ""), 1000, 1000));
+    }
+
+    @Test
+    public void testSecureStoreRefreshOutlivesFirstApplication() throws Exception {
+        ApplicationConfigClient first = ConfigClient.forApplication(FIRST_APPLICATION);
+        ApplicationConfigClient second = ConfigClient.forApplication(SECOND_APPLICATION);
+        first.init();
+        second.init();
+        ConfigRefresher firstRefresher = new ConfigRefresher(first, false, false, true);
+        ConfigRefresher secondRefresher = new ConfigRefresher(second, false, false, true);
+        try {
+            assertSame(firstRefresher.getSecureStoreRefresh(), secondRefresher.getSecureStoreRefresh());
+            firstRefresher.close();
+            first.close();
+            long firstFetchFailures = getFetchFailures(first.getRefreshMetrics());
+
+            secondRefresher.getSecureStoreRefresh().request();
+
+            RefreshMetrics metrics = MetricsRegistry.getMetrics().get("secure-stores");
+            long deadline = System.currentTimeMillis() + 10000;
+            while (getFetchFailures(metrics) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, secureStoreRequests.get());
+            assertEquals(1, getFetchFailures(metrics));
+            assertEquals(firstFetchFailures, getFetchFailures(first.getRefreshMetrics()));
+        } finally {
+            secondRefresher.close();
+        }
+        assertFalse(MetricsRegistry.getMetrics().containsKey("secure-stores"));
+    }
+
+    @Test
+    public void testLastApplicationClosesLogManager() {
+        String url = String.format("http://localhost:%d/config-service", server.getAddress().getPort());
+        LogManagerClient.init(SharedClientResources.getTransport(url, "config-client", "password",
+                RetryPolicy.fromProperties(new Properties(), ""), 1000, 1000));
+        SharedClientResources.acquireLogManager();
+        SharedClientResources.acquireLogManager();
+
+        SharedClientResources.releaseLogManager();
+        assertTrue(MetricsRegistry.getMetrics().containsKey("log-manager"));
+        SharedClientResources.releaseLogManager();
+        assertFalse(MetricsRegistry.getMetrics().containsKey("log-manager"));
+    }
+
+    @Test
+    public void testRefreshMetricsAreRecorded() throws IOException {
+        ApplicationConfigClient first = ConfigClient.forApplication(FIRST_APPLICATION);
+        first.init();
+        RefreshMetrics metrics = first.getRefreshMetrics();
+        for (String stage : new String[]{RefreshMetrics.FETCH, RefreshMetrics.PARSE, RefreshMetrics.INTERPOLATE,
+                RefreshMetrics.PUBLISH}) {
+            assertTrue(stage, metrics.getStageCounts().get(stage) >= 1);
+        }
+        assertTrue(metrics.getPayloadBytes() > 0);
+        assertEquals(Long.valueOf(first.getSnapshot().getVersion()), metrics.getGauges().get("snapshot_version"));
+        assertEquals(Long.valueOf(first.getKeyMetrics().getKeyCount()), metrics.getGauges().get("key_count"));
+        assertSame(metrics, MetricsRegistry.getMetrics().get("config-client/" + FIRST_APPLICATION));
+        assertTrue(MetricsRegistry.toPrometheusText()
+                .contains(String.format("client=\"config-client/%s\",stage=\"fetch\"", FIRST_APPLICATION)));
+        first.close();
+        assertFalse(MetricsRegistry.getMetrics().containsKey("config-client/" + FIRST_APPLICATION));
+    }
+
+    @Test
+    public void testClearReleasesPinnedSnapshotsOfAllApplications() throws IOException {
+        ApplicationConfigClient first = ConfigClient.forApplication(FIRST_APPLICATION);
+        first.init();
+        Config config = first.get("application.client.test.pinned", "before");
+        assertEquals("before", config.toString());
+        Properties properties = new Properties();
+        properties.setProperty("application.client.test.pinned", "after");
+        first.update(properties);
+        assertEquals("before", config.toString());
+        ConfigClient.clear();
+        assertEquals("after", config.toString());
+    }
+
+    private static long getFetchFailures(RefreshMetrics metrics) {
+        Long count = metrics.getStageFailures().get(RefreshMetrics.FETCH);
+        return count != null ? count : 0;
+    }
+
+}
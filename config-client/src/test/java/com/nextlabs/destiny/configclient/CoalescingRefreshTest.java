@@ -0,0 +1,78 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for coalescing refresh requests.
+ */
+public class CoalescingRefreshTest {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRequestsWithinDebounceWindowAreMerged() throws InterruptedException {
+        Semaphore refreshed = new Semaphore(0);
+        CoalescingRefresh refresh = new CoalescingRefresh("test", refreshed::release, executor, 200);
+        for (int i = 0; i < 10; i++) {
+            refresh.request();
+        }
+        assertTrue(refreshed.tryAcquire(10, TimeUnit.SECONDS));
+        assertEquals(1, refresh.getRefreshCount());
+        assertEquals(10, refresh.getRequestCount());
+        assertEquals(9, refresh.getMergedCount());
+    }
+
+    @Test
+    public void testRequestAfterExecutorShutdownIsDropped() {
+        CoalescingRefresh refresh = new CoalescingRefresh("test", () -> {
+        }, executor, 0);
+        executor.shutdownNow();
+
+        refresh.request();
+        refresh.request();
+
+        assertEquals(2, refresh.getRequestCount());
+        assertEquals(0, refresh.getMergedCount());
+        assertEquals(0, refresh.getRefreshCount());
+    }
+
+    @Test
+    public void testAtMostOneRefreshQueuedWhileInFlight() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger refreshes = new AtomicInteger();
+        Semaphore completed = new Semaphore(0);
+        CoalescingRefresh refresh = new CoalescingRefresh("test", () -> {
+            started.countDown();
+            release.await();
+            refreshes.incrementAndGet();
+            completed.release();
+        }, executor, 0);
+        refresh.request();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            refresh.request();
+        }
+        release.countDown();
+        assertTrue(completed.tryAcquire(2, 10, TimeUnit.SECONDS));
+        assertEquals(2, refreshes.get());
+        assertEquals(4, refresh.getMergedCount());
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for conditional configuration refresh using a local configuration service stub.
+ */
+public class ConditionalRefreshTest {
+
+    private static final String APPLICATION_NAME = "conditional-test";
+    private static final String INVALID_APPLICATION_NAME = "conditional-invalid-test";
+    private static final String ENTITY_TAG = "\"version-1\"";
+    private static final List<String> receivedEntityTags = new CopyOnWriteArrayList<>();
+    private static final List<String> invalidReceivedEntityTags = new CopyOnWriteArrayList<>();
+    private static final AtomicReference<String> invalidContent = new AtomicReference<>("conditional.test.value=1");
+    private static final AtomicReference<String> invalidEntityTag = new AtomicReference<>(ENTITY_TAG);
+    private static HttpServer server;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(String.format("/config-service/%s-default.properties", APPLICATION_NAME), exchange -> {
+            String entityTag = exchange.getRequestHeaders().getFirst("If-None-Match");
+            receivedEntityTags.add(String.valueOf(entityTag));
+            if (ENTITY_TAG.equals(entityTag)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] content = "conditional.test.value=1".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("ETag", ENTITY_TAG);
+                exchange.sendResponseHeaders(200, content.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(content);
+                }
+            }
+            exchange.close();
+        });
+        server.createContext(String.format("/config-service/%s-default.properties", INVALID_APPLICATION_NAME),
+                exchange -> {
+                    String entityTag = exchange.getRequestHeaders().getFirst("If-None-Match");
+                    invalidReceivedEntityTags.add(String.valueOf(entityTag));
+                    if (invalidEntityTag.get().equals(entityTag)) {
+                        exchange.sendResponseHeaders(304, -1);
+                    } else {
+                        byte[] content = invalidContent.get().getBytes(StandardCharsets.UTF_8);
+                        exchange.getResponseHeaders().set("ETag", invalidEntityTag.get());
+                        exchange.sendResponseHeaders(200, content.length);
+                        try (OutputStream outputStream = exchange.getResponseBody()) {
+                            outputStream.write(content);
+                        }
+                    }
+                    exchange.close();
+                });
+        server.start();
+
+        File bootstrapFile = File.createTempFile("bootstrap", ".properties");
+        bootstrapFile.deleteOnExit();
+        Properties bootstrapProperties = new Properties();
+        bootstrapProperties.setProperty("spring.cloud.config.uri",
+                String.format("http://localhost:%d/config-service", server.getAddress().getPort()));
+        bootstrapProperties.setProperty("spring.cloud.config.username", "config-client");
+        bootstrapProperties.setProperty("spring.cloud.config.password", "password");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(bootstrapFile)) {
+            bootstrapProperties.store(fileOutputStream, null);
+        }
+        System.setProperty("spring.cloud.bootstrap.location", bootstrapFile.getAbsolutePath());
+        System.clearProperty("server.config.path");
+        ConfigClient.init(APPLICATION_NAME);
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        ConfigClient.forApplication(INVALID_APPLICATION_NAME).close();
+        ConfigClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void testNotModifiedResponseSkipsUpdate() throws IOException {
+        assertEquals(1, ConfigClient.get("conditional.test.value").toInt(false));
+        long version = ConfigClient.getSnapshot().getVersion();
+
+        ConfigClient.refresh();
+
+        assertEquals(version, ConfigClient.getSnapshot().getVersion());
+        assertEquals(ENTITY_TAG, receivedEntityTags.get(receivedEntityTags.size() - 1));
+        assertNull(ConfigClient.getModifiedContent(String.format("%s-default.properties", APPLICATION_NAME)));
+    }
+
+    @Test
+    public void testInvalidConfigurationsAreDownloadedAgain() throws IOException {
+        ApplicationConfigClient client = ConfigClient.forApplication(INVALID_APPLICATION_NAME);
+        client.init();
+        assertEquals(1, client.get("conditional.test.value").toInt(false));
+        // The configurations are modified with an invalid escape sequence
+        invalidContent.set("conditional.test.value=\\u00zz");
+        invalidEntityTag.set("\"version-2\"");
+        try {
+            client.refresh();
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        invalidContent.set("conditional.test.value=2");
+
+        client.refresh();
+
+        assertEquals("null", invalidReceivedEntityTags.get(invalidReceivedEntityTags.size() - 1));
+        client.clear();
+        assertEquals(2, client.get("conditional.test.value").toInt(false));
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for configuration change listeners.
+ */
+public class ConfigChangeListenerTest {
+
+    private final BlockingQueue<ConfigChangeEvent> events = new LinkedBlockingQueue<>();
+    private final ConfigChangeListener listener = events::add;
+
+    @After
+    public void after() {
+        ConfigClient.removeChangeListener(listener);
+    }
+
+    @Test
+    public void testPrefixListenerReceivesDiff() throws InterruptedException {
+        Properties properties = new Properties();
+        properties.setProperty("change.test.pool.size", "10");
+        properties.setProperty("change.test.pool.timeout", "30");
+        properties.setProperty("change.test.other", "value");
+        ConfigClient.update(properties);
+        ConfigClient.addPrefixChangeListener("change.test.pool.", listener);
+
+        properties.setProperty("change.test.pool.size", "20");
+        properties.setProperty("change.test.pool.name", "pool");
+        properties.remove("change.test.pool.timeout");
+        properties.setProperty("change.test.other", "changed");
+        ConfigClient.update(properties);
+
+        ConfigChangeEvent event = events.poll(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singleton("change.test.pool.name"), event.getAddedKeys());
+        assertEquals(Collections.singleton("change.test.pool.size"), event.getChangedKeys());
+        assertEquals(Collections.singleton("change.test.pool.timeout"), event.getRemovedKeys());
+        assertEquals("20", event.getSnapshot().get("change.test.pool.size"));
+        assertNull(event.getSnapshot().get("change.test.pool.timeout"));
+    }
+
+    @Test
+    public void testListenerNotNotifiedForUnrelatedChanges() throws InterruptedException {
+        Properties properties = new Properties();
+        properties.setProperty("change.test.key", "1");
+        ConfigClient.update(properties);
+        ConfigClient.addChangeListener("change.test.key", listener);
+        long version = ConfigClient.getSnapshot().getVersion();
+
+        ConfigClient.update(properties);
+        assertEquals(version, ConfigClient.getSnapshot().getVersion());
+
+        properties.setProperty("change.test.unrelated", "1");
+        ConfigClient.update(properties);
+        assertNotEquals(version, ConfigClient.getSnapshot().getVersion());
+
+        properties.setProperty("change.test.key", "2");
+        ConfigClient.update(properties);
+        ConfigChangeEvent event = events.poll(10, TimeUnit.SECONDS);
+        assertEquals(Collections.singleton("change.test.key"), event.getKeys());
+        assertNull(events.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Tests for the configuration key index.
+ */
+public class ConfigKeyIndexTest {
+
+    private final Map<String, Config> configs = new HashMap<>();
+
+    @Test
+    public void findByPrefix() {
+        ConfigKeyIndex index = new ConfigKeyIndex();
+        for (String key : new String[]{"datasource.url", "datasource.username", "datasourcex", "data", "pool.size",
+                "datasource."}) {
+            add(index, key);
+        }
+        assertEquals(List.of("datasource.", "datasource.url", "datasource.username"),
+                keys(index.getAll("datasource.", configs::get)));
+        assertEquals(List.of("data", "datasource.", "datasource.url", "datasource.username", "datasourcex"),
+                keys(index.getAll("data", configs::get)));
+        assertEquals(6, index.getAll(null, configs::get).size());
+        assertEquals(6, index.getAll("", configs::get).size());
+        assertEquals(0, index.getAll("unknown", configs::get).size());
+    }
+
+    @Test
+    public void cacheUntilChanged() {
+        ConfigKeyIndex index = new ConfigKeyIndex();
+        add(index, "pool.size");
+        List<Config> poolConfigs = index.getAll("pool.", configs::get);
+        assertEquals(poolConfigs, index.getAll("pool.", configs::get));
+        assertSame(poolConfigs.get(0), index.getAll("pool.", configs::get).get(0));
+
+        add(index, "pool.timeout");
+        List<Config> updatedConfigs = index.getAll("pool.", configs::get);
+        assertEquals(List.of("pool.size", "pool.timeout"), keys(updatedConfigs));
+
+        index.remove("pool.size");
+        assertEquals(List.of("pool.timeout"), keys(index.getAll("pool.", configs::get)));
+    }
+
+    @Test
+    public void getAllFromConfigClient() {
+        Properties properties = new Properties();
+        properties.setProperty("config.index.test.a", "1");
+        properties.setProperty("config.index.test.b", "2");
+        ConfigClient.update(properties);
+        ConfigClient.get("config.index.test.c", "3");
+        assertEquals(List.of("config.index.test.a", "config.index.test.b", "config.index.test.c"),
+                keys(ConfigClient.getAll("config.index.test.")));
+        assertEquals(ConfigClient.getAll("config.index.test."), ConfigClient.getAll("config.index.test."));
+    }
+
+    @Test
+    public void cachedPrefixDoesNotHoldConfigurations() throws InterruptedException {
+        ConfigRegistry registry = new ConfigRegistry();
+        registry.getOrCreate("config.index.test.retained", Config::new);
+        registry.retain("config.index.test.retained");
+        Config dynamic = registry.getOrCreate("config.index.test.dynamic", key -> new Config(key, "default"));
+        assertEquals(2, registry.getAll("config.index.test.").size());
+        assertEquals(2, registry.getAll(null).size());
+        dynamic = null;
+
+        for (int i = 0; i < 100 && registry.getMetrics().getKeyCount() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, registry.getMetrics().getKeyCount());
+        assertEquals(List.of("config.index.test.retained"), keys(registry.getAll("config.index.test.")));
+    }
+
+    private void add(ConfigKeyIndex index, String key) {
+        configs.put(key, new Config(key));
+        index.add(key);
+    }
+
+    private static List<String> keys(List<Config> configs) {
+        List<String> keys = new ArrayList<>();
+        for (Config config : configs) {
+            keys.add(config.getKey());
+        }
+        return keys;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for ConfigReferenceResolver.
+ */
+public class ConfigReferenceResolverTest {
+
+    private static final String SYSTEM_PROPERTY = "config.reference.test.home";
+
+    @After
+    public void after() {
+        System.clearProperty(SYSTEM_PROPERTY);
+    }
+
+    @Test
+    public void resolveReferences() {
+        System.setProperty(SYSTEM_PROPERTY, "/opt/nextlabs");
+        Map<String, String> values = new HashMap<>();
+        values.put("server.url", "https://${server.host}:${server.port}");
+        values.put("server.host", "cc.example.com");
+        values.put("server.port", "443");
+        values.put("service.url", "${server.url}/service");
+        values.put("log.dir", "${" + SYSTEM_PROPERTY + "}/logs");
+        values.put("missing", "${unknown}");
+        values.put("escaped", "$${server.host}");
+        Map<String, String> resolvedValues = new ConfigReferenceResolver().resolve(values);
+        assertEquals("https://cc.example.com:443", resolvedValues.get("server.url"));
+        assertEquals("https://cc.example.com:443/service", resolvedValues.get("service.url"));
+        assertEquals("/opt/nextlabs/logs", resolvedValues.get("log.dir"));
+        assertEquals("${unknown}", resolvedValues.get("missing"));
+        assertEquals("${server.host}", resolvedValues.get("escaped"));
+    }
+
+    @Test
+    public void resolveOnlyDependentsOfChangedValues() {
+        ConfigReferenceResolver resolver = new ConfigReferenceResolver();
+        Map<String, String> values = new HashMap<>();
+        values.put("server.host", "cc.example.com");
+        values.put("server.url", "https://${server.host}");
+        values.put("service.url", "${server.url}/service");
+        values.put("other.url", "https://${other.host}");
+        values.put("other.host", "other.example.com");
+        Map<String, String> resolvedValues = resolver.resolve(values);
+
+        values.put("server.host", "cc2.example.com");
+        Map<String, String> updatedValues = resolver.resolve(new HashMap<>(values));
+        assertEquals("https://cc2.example.com/service", updatedValues.get("service.url"));
+        assertNotSame(resolvedValues.get("server.url"), updatedValues.get("server.url"));
+        assertSame(resolvedValues.get("other.url"), updatedValues.get("other.url"));
+
+        values.remove("other.host");
+        Map<String, String> removedValues = resolver.resolve(new HashMap<>(values));
+        assertEquals("https://${other.host}", removedValues.get("other.url"));
+        assertSame(updatedValues.get("service.url"), removedValues.get("service.url"));
+    }
+
+    @Test
+    public void resolveChangedSystemProperties() {
+        ConfigReferenceResolver resolver = new ConfigReferenceResolver();
+        Map<String, String> values = new HashMap<>();
+        values.put("log.dir", "${" + SYSTEM_PROPERTY + "}/logs");
+        values.put("log.file", "${log.dir}/server.log");
+        assertEquals("${" + SYSTEM_PROPERTY + "}/logs/server.log", resolver.resolve(values).get("log.file"));
+        System.setProperty(SYSTEM_PROPERTY, "/opt/nextlabs");
+        assertEquals("/opt/nextlabs/logs/server.log", resolver.resolve(values).get("log.file"));
+    }
+
+    @Test
+    public void keepCyclicReferences() {
+        Map<String, String> values = new HashMap<>();
+        values.put("a", "${b}-a");
+        values.put("b", "${c}-b");
+        values.put("c", "${a}-c");
+        values.put("self", "${self}");
+        values.put("dependent", "${a}/${d}");
+        values.put("d", "d");
+        Map<String, String> resolvedValues = new ConfigReferenceResolver().resolve(values);
+        assertEquals("${b}-a", resolvedValues.get("a"));
+        assertEquals("${c}-b", resolvedValues.get("b"));
+        assertEquals("${a}-c", resolvedValues.get("c"));
+        assertEquals("${self}", resolvedValues.get("self"));
+        assertEquals("${a}/d", resolvedValues.get("dependent"));
+    }
+
+}
@@ -0,0 +1,103 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+/**
+ * Tests for ConfigRegistry.
+ */
+public class ConfigRegistryTest {
+
+    @Test
+    public void collectUnusedConfigurations() throws InterruptedException {
+        ConfigRegistry registry = new ConfigRegistry();
+        Config retained = registry.getOrCreate("registry.test.retained", Config::new);
+        registry.retain("registry.test.retained");
+        for (int i = 0; i < 1000; i++) {
+            registry.getOrCreate("registry.test.dynamic." + i, key -> new Config(key, "default"));
+        }
+        assertEquals(1001, registry.getMetrics().getKeyCount());
+        for (int i = 0; i < 100 && registry.getMetrics().getKeyCount() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        ConfigKeyMetrics metrics = registry.getMetrics();
+        assertEquals(1, metrics.getKeyCount());
+        assertEquals(1000, metrics.getCollectedKeyCount());
+        assertSame(retained, registry.get("registry.test.retained"));
+        assertEquals(Collections.singletonList(retained), registry.getAll("registry.test."));
+    }
+
+    @Test
+    public void reuseReleasedSlots() throws InterruptedException {
+        ConfigRegistry registry = new ConfigRegistry();
+        for (int i = 0; i < 100; i++) {
+            registry.getOrCreate("registry.test.slot." + i, Config::new);
+        }
+        for (int i = 0; i < 100 && registry.getMetrics().getSlotCount() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, registry.getMetrics().getSlotCount());
+        ConfigKey configKey = registry.getConfigKey("registry.test.other");
+        assertTrue(configKey.getSlot() < 100);
+    }
+
+    @Test
+    public void evictTombstones() {
+        ConfigRegistry registry = new ConfigRegistry();
+        Config config = registry.getOrCreate("registry.test.removed", Config::new);
+        registry.retain("registry.test.removed");
+        registry.tombstone("registry.test.removed");
+        for (int i = 1; i < ConfigRegistry.TOMBSTONE_REFRESHES; i++) {
+            registry.refreshed();
+            assertEquals(1, registry.getMetrics().getTombstonedKeyCount());
+        }
+        registry.refreshed();
+        ConfigKeyMetrics metrics = registry.getMetrics();
+        assertEquals(0, metrics.getTombstonedKeyCount());
+        assertEquals(0, metrics.getRetainedKeyCount());
+        assertEquals(1, metrics.getEvictedTombstoneCount());
+        // Still available while the application holds the configuration
+        assertSame(config, registry.get("registry.test.removed"));
+    }
+
+    @Test
+    public void snapshotKeepsSlotsOfItsKeys() {
+        ConfigRegistry registry = new ConfigRegistry();
+        Map<String, ConfigValue> values = Collections.singletonMap("registry.test.snapshot", new ConfigValue("1"));
+        ConfigSnapshot snapshot = new ConfigSnapshot(1, values, registry::getConfigKey);
+        ConfigKey configKey = registry.getConfigKey("registry.test.snapshot");
+        assertNotNull(snapshot.getValue(configKey));
+        assertNull(snapshot.getValue(registry.getConfigKey("registry.test.other")));
+    }
+
+    @Test
+    public void removedConfigurationsAreTombstoned() {
+        Properties properties = new Properties();
+        properties.setProperty("registry.test.client.a", "1");
+        properties.setProperty("registry.test.client.b", "2");
+        ConfigClient.update(properties);
+        Config config = ConfigClient.get("registry.test.client.b");
+        assertEquals("2", config.toString(false));
+        long evictedTombstones = ConfigClient.getKeyMetrics().getEvictedTombstoneCount();
+
+        properties.remove("registry.test.client.b");
+        for (int i = 0; i < ConfigRegistry.TOMBSTONE_REFRESHES; i++) {
+            ConfigClient.update(properties);
+        }
+        assertTrue(ConfigClient.getKeyMetrics().getEvictedTombstoneCount() > evictedTombstones);
+        assertNull(config.toString(false));
+        assertSame(config, ConfigClient.get("registry.test.client.b"));
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the last known good configuration snapshot.
+ */
+public class ConfigSnapshotFileTest {
+
+    private static final String APPLICATION_NAME = "snapshot-test";
+
+    private Path configPath;
+
+    @Before
+    public void before() throws IOException {
+        configPath = Files.createTempDirectory("config");
+    }
+
+    @After
+    public void after() throws IOException {
+        System.clearProperty("server.config.path");
+        try (Stream<Path> files = Files.list(configPath)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(configPath);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("snapshot.test.password", "{cipher}0123456789abcdef");
+        properties.setProperty("snapshot.test.name", "näme with spaces = and \n new line");
+        properties.setProperty("snapshot.test.empty", "");
+        Path file = configPath.resolve("test-snapshot.dat");
+
+        ConfigSnapshotFile.write(file, properties);
+
+        assertEquals(properties, ConfigSnapshotFile.read(file));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptedFileIsRejected() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("snapshot.test.value", "1");
+        Path file = configPath.resolve("test-snapshot.dat");
+        ConfigSnapshotFile.write(file, properties);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            randomAccessFile.seek(randomAccessFile.length() - 1);
+            int lastByte = randomAccessFile.read();
+            randomAccessFile.seek(randomAccessFile.length() - 1);
+            randomAccessFile.write(lastByte ^ 0xFF);
+        }
+
+        ConfigSnapshotFile.read(file);
+    }
+
+    @Test
+    public void testInitFromSnapshotAndReconcile() throws Exception {
+        CountDownLatch serviceAvailable = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext(String.format("/config-service/%s-default.properties", APPLICATION_NAME), exchange -> {
+            try {
+                serviceAvailable.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] content = "snapshot.test.value=2".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(content);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            File bootstrapFile = File.createTempFile("bootstrap", ".properties");
+            bootstrapFile.deleteOnExit();
+            Properties bootstrapProperties = new Properties();
+            bootstrapProperties.setProperty("spring.cloud.config.uri",
+                    String.format("http://localhost:%d/config-service", server.getAddress().getPort()));
+            bootstrapProperties.setProperty("spring.cloud.config.username", "config-client");
+            bootstrapProperties.setProperty("spring.cloud.config.password", "password");
+            bootstrapProperties.setProperty("spring.cloud.config.snapshot.enabled", "true");
+            try (FileOutputStream fileOutputStream = new FileOutputStream(bootstrapFile)) {
+                bootstrapProperties.store(fileOutputStream, null);
+            }
+            System.setProperty("spring.cloud.bootstrap.location", bootstrapFile.getAbsolutePath());
+            System.setProperty("server.config.path", configPath.toString());
+            Properties snapshotProperties = new Properties();
+            snapshotProperties.setProperty("snapshot.test.value", "1");
+            Path snapshotFile = configPath.resolve(APPLICATION_NAME + "-snapshot.dat");
+            ConfigSnapshotFile.write(snapshotFile, snapshotProperties);
+
+            ConfigClient.init(APPLICATION_NAME);
+
+            Config value = ConfigClient.get("snapshot.test.value");
+            assertEquals(1, value.toInt(false));
+
+            serviceAvailable.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((value.toInt(false) != 2 || !"2".equals(ConfigSnapshotFile.read(snapshotFile)
+                    .getProperty("snapshot.test.value"))) && System.currentTimeMillis() < deadline) {
+                ConfigClient.clear();
+                Thread.sleep(10);
+            }
+            ConfigClient.clear();
+            assertEquals(2, value.toInt(false));
+            assertEquals("2", ConfigSnapshotFile.read(snapshotFile).getProperty("snapshot.test.value"));
+        } finally {
+            serviceAvailable.countDown();
+            ConfigClient.close();
+            server.stop(0);
+        }
+    }
+
+}
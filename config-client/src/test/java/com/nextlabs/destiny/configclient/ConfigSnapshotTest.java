@@ -0,0 +1,203 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for configuration snapshot publication.
+ */
+public class ConfigSnapshotTest {
+
+    private static final int CONFIG_COUNT = 200;
+    private static final int UPDATE_COUNT = 500;
+    private static final int READER_COUNT = 4;
+
+    @Test
+    public void testReadersNeverSeeTornConfiguration() throws Exception {
+        List<Config> configs = new ArrayList<>();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            configs.add(ConfigClient.get("snapshot.test." + i));
+        }
+        ConfigClient.update(createProperties(0));
+        AtomicBoolean updating = new AtomicBoolean(true);
+        ExecutorService executorService = Executors.newFixedThreadPool(READER_COUNT);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < READER_COUNT; i++) {
+                readers.add(executorService.submit(() -> {
+                    int reads = 0;
+                    long lastVersion = 0;
+                    while (updating.get() || reads == 0) {
+                        ConfigClient.clear();
+                        long generation = configs.get(0).toLong();
+                        for (Config config : configs) {
+                            assertEquals(generation, config.toLong());
+                        }
+                        ConfigSnapshot snapshot = ConfigClient.getSnapshot();
+                        assertEquals(snapshot.get("snapshot.test.0"), snapshot.get("snapshot.test." + (CONFIG_COUNT - 1)));
+                        assertTrue(snapshot.getVersion() >= lastVersion);
+                        lastVersion = snapshot.getVersion();
+                        reads++;
+                    }
+                    return reads;
+                }));
+            }
+            for (int generation = 1; generation <= UPDATE_COUNT; generation++) {
+                ConfigClient.update(createProperties(generation));
+            }
+            updating.set(false);
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get(30, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            updating.set(false);
+            executorService.shutdownNow();
+        }
+        ConfigClient.clear();
+        assertEquals(UPDATE_COUNT, configs.get(CONFIG_COUNT - 1).toInt());
+    }
+
+    @Test
+    public void testPinnedSnapshotIsStableUntilCleared() {
+        Properties properties = new Properties();
+        properties.setProperty("snapshot.test.pinned", "before");
+        ConfigClient.update(properties);
+        ConfigClient.clear();
+        Config config = ConfigClient.get("snapshot.test.pinned");
+        assertEquals("before", config.toString());
+        properties.setProperty("snapshot.test.pinned", "after");
+        ConfigClient.update(properties);
+        assertEquals("before", config.toString());
+        assertEquals("after", config.toString(false));
+        ConfigClient.clear();
+        assertEquals("after", config.toString());
+        assertNull(ConfigClient.getSnapshot().get("snapshot.test.missing"));
+    }
+
+    @Test
+    public void testThreadKeepsPinnedSnapshotAcrossPublish() throws Exception {
+        ApplicationConfigClient client = new ApplicationConfigClient("snapshot-test-pinned-thread");
+        Properties properties = new Properties();
+        properties.setProperty("snapshot.test.thread", "before");
+        client.update(properties);
+        Config config = client.get("snapshot.test.thread");
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            ConfigSnapshot pinned = executorService.submit(client::getPinnedSnapshot).get();
+            properties.setProperty("snapshot.test.thread", "after");
+            client.update(properties);
+            assertTrue(client.getSnapshot().getVersion() > pinned.getVersion());
+            // The publish does not change the snapshot pinned by the other thread
+            assertSame(pinned, executorService.submit(client::getPinnedSnapshot).get());
+            assertEquals("before", executorService.submit(() -> config.toString()).get());
+            assertEquals("after", executorService.submit(() -> config.toString(false)).get());
+            assertEquals("after", config.toString());
+            executorService.submit(client::clear).get();
+            assertSame(client.getSnapshot(), executorService.submit(client::getPinnedSnapshot).get());
+            assertEquals("after", executorService.submit(() -> config.toString()).get());
+        } finally {
+            executorService.shutdownNow();
+            client.clear();
+        }
+    }
+
+    @Test
+    public void testClearRemovesThreadLocalEntry() {
+        AtomicInteger pins = new AtomicInteger();
+        ApplicationConfigClient client = new ApplicationConfigClient("snapshot-test-clear") {
+            @Override
+            public ConfigSnapshot getSnapshot() {
+                pins.incrementAndGet();
+                return super.getSnapshot();
+            }
+        };
+        // Clearing a thread without a pinned snapshot does not create the ThreadLocal entry
+        client.clear();
+        assertEquals(0, pins.get());
+        ConfigSnapshot pinned = client.getPinnedSnapshot();
+        assertSame(pinned, client.getPinnedSnapshot());
+        assertEquals(1, pins.get());
+        Properties properties = new Properties();
+        properties.setProperty("snapshot.test.clear", "after");
+        client.update(properties);
+        assertSame(pinned, client.getPinnedSnapshot());
+        // The entry is removed, so the next access initializes it again with the latest snapshot
+        client.clear();
+        assertEquals("after", client.getPinnedSnapshot().get("snapshot.test.clear"));
+        assertEquals(2, pins.get());
+    }
+
+    @Test
+    public void testKeyAddedAfterPublishGetsValidSlot() {
+        ApplicationConfigClient client = new ApplicationConfigClient("snapshot-test-new-key");
+        Properties properties = new Properties();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            properties.setProperty("snapshot.test.slot." + i, String.valueOf(i));
+        }
+        client.update(properties);
+        ConfigSnapshot published = client.getSnapshot();
+        Config config = client.get("snapshot.test.slot.new");
+        int slot = config.getConfigKey().getSlot();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            assertNotEquals(slot, client.getConfigKey("snapshot.test.slot." + i).getSlot());
+        }
+        // The slot is outside the values of the snapshot published before the key was added
+        assertNull(published.getValue(config.getConfigKey()));
+        assertNull(config.toString(false));
+        properties.setProperty("snapshot.test.slot.new", "added");
+        client.update(properties);
+        assertEquals("added", config.toString(false));
+        assertEquals("added", client.getSnapshot().getValue(config.getConfigKey()).toStringValue());
+        assertNull(published.getValue(config.getConfigKey()));
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            assertEquals(i, client.get("snapshot.test.slot." + i).toInt(false));
+        }
+    }
+
+    @Test
+    public void testEqualValuesAreShared() {
+        Properties properties = new Properties();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            properties.setProperty(new String("snapshot.test.shared." + i), new String("true"));
+        }
+        ConfigClient.update(properties);
+        ConfigSnapshot snapshot = ConfigClient.getSnapshot();
+        ConfigValue value = snapshot.getValue("snapshot.test.shared.0");
+        assertSame("true", value.getSource());
+        for (int i = 1; i < CONFIG_COUNT; i++) {
+            assertSame(value, snapshot.getValue("snapshot.test.shared." + i));
+        }
+        assertSame("snapshot.test.shared.0", ConfigClient.get("snapshot.test.shared.0").getKey());
+        SnapshotFootprint footprint = snapshot.getFootprint();
+        assertEquals(snapshot.getVersion(), footprint.getVersion());
+        assertEquals(snapshot.size(), footprint.getConfigurationCount());
+        assertTrue(footprint.getSharedValueCount() >= CONFIG_COUNT - 1);
+        assertEquals(footprint.getConfigurationCount(),
+                footprint.getDistinctValueCount() + footprint.getSharedValueCount());
+        assertTrue(footprint.getEstimatedBytes() < footprint.getEstimatedBytesWithoutSharing());
+    }
+
+    private static Properties createProperties(int generation) {
+        Properties properties = new Properties();
+        for (int i = 0; i < CONFIG_COUNT; i++) {
+            properties.setProperty("snapshot.test." + i, String.valueOf(generation));
+        }
+        return properties;
+    }
+
+}
@@ -0,0 +1,138 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for configuration values.
+ */
+public class ConfigTest {
+
+    @After
+    public void after() {
+        ConfigClient.clear();
+    }
+
+    @Test
+    public void testTypedValues() {
+        Properties properties = new Properties();
+        properties.setProperty("config.test.int", "42");
+        properties.setProperty("config.test.double", "1.5");
+        properties.setProperty("config.test.boolean", "true");
+        ConfigClient.update(properties);
+        ConfigClient.clear();
+        assertEquals(42, ConfigClient.get("config.test.int").toInt());
+        assertEquals(42L, ConfigClient.get("config.test.int").toLong());
+        assertEquals(42.0, ConfigClient.get("config.test.int").toDouble(), 0);
+        assertEquals(1.5, ConfigClient.get("config.test.double").toDouble(), 0);
+        assertTrue(ConfigClient.get("config.test.boolean").toBoolean());
+        assertFalse(ConfigClient.get("config.test.int").toBoolean());
+    }
+
+    @Test
+    public void testInvalidValueReturnsDefaultValue() {
+        Config config = ConfigClient.get("config.test.timeout", 30);
+        Properties properties = new Properties();
+        properties.setProperty("config.test.timeout", "thirty");
+        ConfigClient.update(properties);
+        ConfigClient.clear();
+        assertEquals("thirty", config.toString());
+        assertEquals(30, config.toInt());
+        assertEquals(30, config.toInt(false));
+    }
+
+    @Test
+    public void testInvalidValueReturnsDefaultValueRegisteredAfterRefresh() {
+        Properties properties = new Properties();
+        properties.setProperty("config.test.refreshed.timeout", "thirty");
+        ConfigClient.update(properties);
+        ConfigClient.clear();
+        Config refreshedConfig = ConfigClient.get("config.test.refreshed.timeout");
+        Config config = ConfigClient.get("config.test.refreshed.timeout", 30);
+        assertSame(refreshedConfig, config);
+        assertEquals("thirty", config.toString());
+        assertEquals(30, config.toInt());
+        assertEquals(30L, refreshedConfig.toLong());
+        assertEquals(30.0, refreshedConfig.toDouble(false), 0);
+        // The first registered default value is kept
+        assertEquals(30, ConfigClient.get("config.test.refreshed.timeout", 60).toInt());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testInvalidValueWithoutDefaultValue() {
+        Properties properties = new Properties();
+        properties.setProperty("config.test.invalid", "invalid");
+        ConfigClient.update(properties);
+        ConfigClient.clear();
+        ConfigClient.get("config.test.invalid").toInt();
+    }
+
+    @Test
+    public void testStandaloneConfigIsDetachedFromClient() {
+        long version = ConfigClient.getSnapshot().getVersion();
+        Config config = new Config("config.test.standalone", "local");
+        config.setValue("changed");
+        assertEquals("changed", config.toString());
+        assertEquals("changed", config.toString(false));
+        assertEquals(version, ConfigClient.getSnapshot().getVersion());
+        assertFalse(ConfigClient.getSnapshot().contains("config.test.standalone"));
+        assertNull(ConfigClient.get("config.test.standalone").toString());
+    }
+
+    @Test
+    public void testClientValueSetIsReplacedByRefresh() {
+        Config config = ConfigClient.get("config.test.set");
+        config.setValue("set");
+        ConfigClient.clear();
+        assertEquals("set", config.toString());
+        Properties properties = new Properties();
+        properties.setProperty("config.test.set", "refreshed");
+        ConfigClient.update(properties);
+        ConfigClient.clear();
+        assertEquals("refreshed", config.toString());
+    }
+
+    @Test
+    public void testEncryptedValueIsDecryptedOnFirstAccess() {
+        AtomicInteger decryptions = new AtomicInteger();
+        ConfigValue value = ConfigValue.encrypted("{cipher}secret", cipherText -> {
+            decryptions.incrementAndGet();
+            return "42";
+        });
+        assertEquals(0, decryptions.get());
+        assertEquals(42, value.toInt());
+        assertEquals("42", value.toStringValue());
+        assertEquals(1, decryptions.get());
+
+        value.clear();
+        assertEquals("42", value.toStringValue());
+        assertEquals(2, decryptions.get());
+    }
+
+    @Test
+    public void testUnchangedEncryptedValueIsReused() {
+        Properties properties = new Properties();
+        properties.setProperty("config.test.password", "{cipher}s70617373776f7264");
+        properties.setProperty("config.test.counter", "1");
+        ConfigClient.update(properties);
+        ConfigValue encryptedValue = ConfigClient.getSnapshot().getValue("config.test.password");
+        assertTrue(encryptedValue.isEncrypted());
+
+        properties.setProperty("config.test.counter", "2");
+        properties.setProperty("config.test.secondPassword", "{cipher}s70617373776f7264");
+        ConfigClient.update(properties);
+
+        assertSame(encryptedValue, ConfigClient.getSnapshot().getValue("config.test.password"));
+        assertSame(encryptedValue, ConfigClient.getSnapshot().getValue("config.test.secondPassword"));
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for the non-blocking initialization using a local configuration service stub.
+ */
+public class InitAsyncTest {
+
+    private static final String APPLICATION_NAME = "init-async-test";
+
+    private final CountDownLatch serviceAvailable = new CountDownLatch(1);
+    private final AtomicInteger secureStoreRequests = new AtomicInteger();
+    private HttpServer server;
+    private String bootstrapLocation;
+
+    @Before
+    public void before() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext(String.format("/config-service/%s-default.properties", APPLICATION_NAME), exchange -> {
+            try {
+                serviceAvailable.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] content = "init.async.test.value=1".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(content);
+            }
+            exchange.close();
+        });
+        server.createContext("/config-service/secure-store/download", exchange -> {
+            secureStoreRequests.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+
+        File bootstrapFile = File.createTempFile("bootstrap", ".properties");
+        bootstrapFile.deleteOnExit();
+        Properties bootstrapProperties = new Properties();
+        bootstrapProperties.setProperty("spring.cloud.config.uri",
+                String.format("http://localhost:%d/config-service", server.getAddress().getPort()));
+        bootstrapProperties.setProperty("spring.cloud.config.username", "config-client");
+        bootstrapProperties.setProperty("spring.cloud.config.password", "password");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(bootstrapFile)) {
+            bootstrapProperties.store(fileOutputStream, null);
+        }
+        bootstrapLocation = System.getProperty("spring.cloud.bootstrap.location");
+        System.setProperty("spring.cloud.bootstrap.location", bootstrapFile.getAbsolutePath());
+        System.clearProperty("server.config.path");
+    }
+
+    @After
+    public void after() {
+        serviceAvailable.countDown();
+        ConfigClient.close();
+        server.stop(0);
+        if (bootstrapLocation != null) {
+            System.setProperty("spring.cloud.bootstrap.location", bootstrapLocation);
+        }
+    }
+
+    @Test
+    public void testInitAsyncDoesNotBlock() throws Exception {
+        CompletableFuture<Void> initialized = ConfigClient.initAsync(APPLICATION_NAME);
+
+        assertFalse(initialized.isDone());
+
+        serviceAvailable.countDown();
+        initialized.get(10, TimeUnit.SECONDS);
+        ConfigClient.clear();
+        assertEquals(1, ConfigClient.get("init.async.test.value").toInt(false));
+    }
+
+    @Test
+    public void testInitAsyncStopsStartupThreadsWithoutDownloadingSecureStores() throws Exception {
+        serviceAvailable.countDown();
+        ConfigClient.initAsync(APPLICATION_NAME).get(10, TimeUnit.SECONDS);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (isStartupThreadAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(isStartupThreadAlive());
+        assertEquals(0, secureStoreRequests.get());
+    }
+
+    @Test
+    public void testInitAsyncFailsWithoutBootstrapProperties() throws InterruptedException {
+        System.setProperty("spring.cloud.bootstrap.location", "missing-bootstrap.properties");
+
+        CompletableFuture<Void> initialized = ConfigClient.initAsync(APPLICATION_NAME);
+
+        assertTrue(initialized.isCompletedExceptionally());
+        try {
+            initialized.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private static boolean isStartupThreadAlive() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> "config-client-startup".equals(thread.getName()));
+    }
+
+}
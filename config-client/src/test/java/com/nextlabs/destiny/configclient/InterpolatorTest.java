@@ -0,0 +1,59 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Interpolator.
+ */
+public class InterpolatorTest {
+
+    private static final Map<String, String> PROPERTIES = new HashMap<>();
+
+    static {
+        PROPERTIES.put("cc.home", "/opt/nextlabs");
+        PROPERTIES.put("server.hostname", "cc.example.com");
+        PROPERTIES.put("nested", "${cc.home}");
+    }
+
+    private static String interpolate(String value) {
+        return Interpolator.interpolate(value, PROPERTIES::get);
+    }
+
+    @Test
+    public void valueWithoutPlaceholders() {
+        String value = "plain $ value {}";
+        assertSame(value, interpolate(value));
+    }
+
+    @Test
+    public void resolvePlaceholders() {
+        assertEquals("/opt/nextlabs", interpolate("${cc.home}"));
+        assertEquals("https://cc.example.com/opt/nextlabs/logs",
+                interpolate("https://${server.hostname}${cc.home}/logs"));
+        assertEquals("/opt/nextlabs:/opt/nextlabs", interpolate("${cc.home}:${cc.home}"));
+    }
+
+    @Test
+    public void keepUnresolvedPlaceholders() {
+        assertEquals("${unknown}/opt/nextlabs", interpolate("${unknown}${cc.home}"));
+        assertEquals("/opt/nextlabs/${cc.home", interpolate("${cc.home}/${cc.home"));
+    }
+
+    @Test
+    public void escapePlaceholders() {
+        assertEquals("${cc.home}", interpolate("$${cc.home}"));
+        assertEquals("${cc.home}=/opt/nextlabs", interpolate("$${cc.home}=${cc.home}"));
+    }
+
+    @Test
+    public void doNotInterpolateResolvedValues() {
+        assertEquals("${cc.home}", interpolate("${nested}"));
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.nextlabs.destiny.configclient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for refresh scheduling policies. The simulation runs many clients refreshing when an update is broadcast on a
+ * scheduler with a virtual clock and compares the peak number of concurrent requests to the configuration service.
+ */
+public class RefreshSchedulingPolicyTest {
+
+    private static final int CLIENT_COUNT = 100;
+    private static final long REQUEST_MILLIS = 20;
+    private static final long WINDOW_MILLIS = 2000;
+
+    @Test
+    public void testSpreadRefreshesReducePeakConcurrentRequests() {
+        int immediatePeak = simulateBroadcast(index -> RefreshSchedulingPolicy.IMMEDIATE);
+        int randomPeak = simulateBroadcast(index -> RefreshSchedulingPolicy.random(WINDOW_MILLIS));
+        int hostnamePeak = simulateBroadcast(index ->
+                RefreshSchedulingPolicy.hostnameSlot(String.format("node-%d.nextlabs.com", index), WINDOW_MILLIS));
+        assertEquals(CLIENT_COUNT, immediatePeak);
+        assertTrue(randomPeak * 2 < immediatePeak);
+        assertTrue(hostnamePeak * 2 < immediatePeak);
+    }
+
+    @Test
+    public void testHostnameSlotIsStableWithinWindow() {
+        RefreshSchedulingPolicy policy = RefreshSchedulingPolicy.hostnameSlot("node.nextlabs.com", WINDOW_MILLIS);
+        long delay = policy.getDelay();
+        assertTrue(delay >= 0 && delay < WINDOW_MILLIS);
+        assertEquals(delay, RefreshSchedulingPolicy.of("hostname", "node.nextlabs.com", WINDOW_MILLIS).getDelay());
+        assertEquals(0, RefreshSchedulingPolicy.of("random", "node.nextlabs.com", 0).getDelay());
+    }
+
+    @Test
+    public void testHostnameSlotWithoutHostnameIsRandom() {
+        for (String hostname : new String[]{null, "", " "}) {
+            RefreshSchedulingPolicy policy = RefreshSchedulingPolicy.of("hostname", hostname, WINDOW_MILLIS);
+            Set<Long> delays = new HashSet<>();
+            for (int i = 0; i < CLIENT_COUNT; i++) {
+                long delay = policy.getDelay();
+                assertTrue(delay >= 0 && delay < WINDOW_MILLIS);
+                delays.add(delay);
+            }
+            assertTrue(delays.size() > 1);
+        }
+    }
+
+    private int simulateBroadcast(PolicyFactory policyFactory) {
+        VirtualTimeScheduler scheduler = new VirtualTimeScheduler();
+        List<Long> requestStartTimes = new ArrayList<>();
+        List<CoalescingRefresh> clients = new ArrayList<>();
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            clients.add(new CoalescingRefresh("client-" + i, () -> requestStartTimes.add(scheduler.currentTimeMillis()),
+                    scheduler, 0, policyFactory.create(i)));
+        }
+        clients.forEach(CoalescingRefresh::request);
+        scheduler.runAll();
+        assertEquals(CLIENT_COUNT, requestStartTimes.size());
+
+        // Peak number of requests started within the duration of a request
+        Collections.sort(requestStartTimes);
+        int peak = 0;
+        int first = 0;
+        for (int last = 0; last < requestStartTimes.size(); last++) {
+            while (requestStartTimes.get(first) <= requestStartTimes.get(last) - REQUEST_MILLIS) {
+                first++;
+            }
+            peak = Math.max(peak, last - first + 1);
+        }
+        return peak;
+    }
+
+    @FunctionalInterface
+    private interface PolicyFactory {
+
+        RefreshSchedulingPolicy create(int clientIndex);
+
+    }
+
+    /**
+     * Scheduler running the scheduled tasks on the calling thread in the order of their scheduled time, advancing a
+     * virtual clock instead of waiting.
+     */
+    private static class VirtualTimeScheduler extends ScheduledThreadPoolExecutor {
+
+        private final PriorityQueue<ScheduledTask> tasks = new PriorityQueue<>(
+                Comparator.comparingLong((ScheduledTask task) -> task.time).thenComparingLong(task -> task.sequence));
+        private long currentTimeMillis;
+        private long sequence;
+
+        VirtualTimeScheduler() {
+            super(0);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(new ScheduledTask(currentTimeMillis + unit.toMillis(delay), sequence++, command));
+            return null;
+        }
+
+        long currentTimeMillis() {
+            return currentTimeMillis;
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                ScheduledTask task = tasks.poll();
+                currentTimeMillis = task.time;
+                task.command.run();
+            }
+            shutdown();
+        }
+
+    }
+
+    private static class ScheduledTask {
+
+        private final long time;
+        private final long sequence;
+        private final Runnable command;
+
+        ScheduledTask(long time, long sequence, Runnable command) {
+            this.time = time;
+            this.sequence = sequence;
+            this.command = command;
+        }
+
+    }
+
+}
@@ -2,17 +2,20 @@ package com.nextlabs.destiny.logmanager;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Base64;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -26,25 +29,42 @@ import org.apache.logging.log4j.core.config.ConfigurationFactory;
 import org.apache.logging.log4j.core.config.ConfigurationSource;
 import org.apache.logging.log4j.core.config.composite.CompositeConfiguration;
 
-import com.bluejungle.framework.crypt.ReversibleEncryptor;
+import com.nextlabs.cc.common.http.HttpTransport;
+import com.nextlabs.cc.common.metrics.MetricsRegistry;
+import com.nextlabs.cc.common.metrics.RefreshMetrics;
+import com.nextlabs.cc.common.retry.RetryPolicy;
+import com.nextlabs.cc.common.util.EncryptionUtil;
 
 /**
  * Log manager client obtain logger configurations from configuration service and re-configure the LogManager.
+ * <p>
+ * The durations of the refresh stages, the payload sizes and the retries are recorded in the {@link RefreshMetrics}
+ * registered in the {@link MetricsRegistry} as "log-manager" when the client is initialized. The metrics are
+ * unregistered with {@link #close()}, so the MBean server does not keep the class loader of the client after an
+ * application is undeployed.
  *
  * @author Sachindra Dasun
  */
 public class LogManagerClient {
 
-    private static final String AUTHORIZATION_PROPERTY = "Basic %s";
-    private static final String ENCRYPTED_VALUE_PREFIX = "{cipher}";
     private static final Logger LOGGER = LogManager.getLogger(LogManagerClient.class);
-    private static final String LOGGING_CONFIG_ENDPOINT = "%s/logger-config/get";
-    private static final ReversibleEncryptor REVERSIBLE_ENCRYPTOR = new ReversibleEncryptor();
-    private static String configServicePassword;
-    private static String configServiceUrl;
-    private static String configServiceUsername;
+    private static final String LOGGING_CONFIG_URI = "logger-config/get";
+    private static final String LOGGER_CONFIG_CACHE_FILE = "logger-config-cache.json";
+    private static final String METRICS_NAME = "log-manager";
+    private static final RefreshMetrics metrics = new RefreshMetrics();
+    private static final Object REFRESH_EXECUTOR_LOCK = new Object();
+    private static final AtomicBoolean refreshQueued = new AtomicBoolean();
+    private static ExecutorService refreshExecutor;
+    private static volatile RetryPolicy retryPolicy = RetryPolicy.fromProperties(new Properties(), "");
+    private static HttpTransport transport;
     private static boolean initialized;
 
+    static {
+        metrics.addGauge("call_count", () -> retryPolicy.getCallCount());
+        metrics.addGauge("retry_count", () -> retryPolicy.getRetryCount());
+        metrics.addGauge("call_failure_count", () -> retryPolicy.getFailureCount());
+    }
+
     private LogManagerClient() {
     }
 
@@ -57,7 +77,82 @@ public class LogManagerClient {
      */
     public static void refresh(String configServiceUrl, String configServiceUsername,
                                String configServicePassword) {
-        init(configServiceUrl, configServiceUsername, configServicePassword);
+        refresh(configServiceUrl, configServiceUsername, configServicePassword, retryPolicy);
+    }
+
+    /**
+     * Init and setup the loggers.
+     *
+     * @param configServiceUrl      configuration service URL
+     * @param configServiceUsername configuration service username
+     * @param configServicePassword configuration service password
+     * @param retryPolicy           retry policy used to access the configuration service
+     */
+    public static void refresh(String configServiceUrl, String configServiceUsername,
+                               String configServicePassword, RetryPolicy retryPolicy) {
+        init(configServiceUrl, configServiceUsername, configServicePassword, retryPolicy);
+        refreshLoggers(false);
+    }
+
+    /**
+     * Init and setup the loggers using the given transport to the configuration service.
+     *
+     * @param transport transport to the configuration service
+     */
+    public static void refresh(HttpTransport transport) {
+        refresh(transport, false);
+    }
+
+    /**
+     * Init and setup the loggers using the given transport to the configuration service.
+     * <p>
+     * If the last applied logger configurations are found in the "server.config.path" directory, they are applied
+     * immediately and the loggers are refreshed from the configuration service in the background. Otherwise the loggers
+     * are refreshed in the background only if requested. The background refreshes run on a single thread, which stops
+     * when it is idle, and a background refresh requested before the queued one starts is merged into it.
+     *
+     * @param transport transport to the configuration service
+     * @param async     true to refresh the loggers in the background even if the last applied logger configurations
+     *                  are not found
+     */
+    public static void refresh(HttpTransport transport, boolean async) {
+        init(transport);
+        refreshLoggers(async);
+    }
+
+    private static void refreshLoggers(boolean async) {
+        if (applyCachedLoggerConfigs() || async) {
+            requestBackgroundRefresh();
+        } else {
+            refreshLoggers();
+        }
+    }
+
+    /**
+     * Request a refresh of the loggers in the background, which is merged into the queued refresh if any.
+     */
+    static void requestBackgroundRefresh() {
+        synchronized (REFRESH_EXECUTOR_LOCK) {
+            if (refreshExecutor == null) {
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), runnable -> {
+                            Thread thread = new Thread(runnable, "logger-config-refresher");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                executor.allowCoreThreadTimeOut(true);
+                refreshExecutor = executor;
+            }
+            if (refreshQueued.compareAndSet(false, true)) {
+                refreshExecutor.execute(() -> {
+                    refreshQueued.set(false);
+                    refreshLoggers();
+                });
+            }
+        }
+    }
+
+    private static void refreshLoggers() {
         try {
             refresh();
         } catch (Exception e) {
@@ -67,54 +162,203 @@ public class LogManagerClient {
 
     public static void init(String configServiceUrl, String configServiceUsername,
                             String configServicePassword) {
-        LogManagerClient.configServiceUrl = configServiceUrl;
-        LogManagerClient.configServiceUsername = configServiceUsername;
-        LogManagerClient.configServicePassword = configServicePassword;
+        init(configServiceUrl, configServiceUsername, configServicePassword, retryPolicy);
+    }
 
+    /**
+     * Init the log manager client. The retry policy is shared with the configuration client to have a common view of
+     * the configuration service state.
+     *
+     * @param configServiceUrl      configuration service URL
+     * @param configServiceUsername configuration service username
+     * @param configServicePassword configuration service password
+     * @param retryPolicy           retry policy used to access the configuration service
+     */
+    public static void init(String configServiceUrl, String configServiceUsername,
+                            String configServicePassword, RetryPolicy retryPolicy) {
         // Enhance security, make sure communication happens in secured channel
         if (configServiceUrl == null) {
             throw new IllegalArgumentException("Invalid URL. URL cannot be null.");
         }
+        init(new HttpTransport(configServiceUrl, configServiceUsername, decryptIfEncrypted(configServicePassword),
+                retryPolicy, LogManagerClient::logRetry));
+    }
+
+    /**
+     * Init the log manager client with the given transport. The configuration client shares its transport, so both
+     * clients reuse the same connections to the configuration service.
+     *
+     * @param transport transport to the configuration service
+     */
+    public static synchronized void init(HttpTransport transport) {
+        LogManagerClient.transport = transport;
+        LogManagerClient.retryPolicy = transport.getRetryPolicy();
+        transport.removeValidators(LOGGING_CONFIG_URI);
+        if (!MetricsRegistry.register(METRICS_NAME, metrics)) {
+            LOGGER.debug("Refresh metrics of the log manager client are not registered in the MBean server");
+        }
+    }
+
+    /**
+     * Close the log manager client, stop the background refreshes and unregister its refresh metrics. The client can be
+     * initialized again.
+     */
+    public static void close() {
+        synchronized (REFRESH_EXECUTOR_LOCK) {
+            if (refreshExecutor != null) {
+                refreshExecutor.shutdownNow();
+                refreshExecutor = null;
+                refreshQueued.set(false);
+            }
+        }
+        MetricsRegistry.unregister(METRICS_NAME);
     }
 
-    public static void refresh() {
-        String loggingConfigUrl = String.format(LOGGING_CONFIG_ENDPOINT, configServiceUrl);
+    private static void logRetry(int attempt, long delay, IOException e) {
+        LOGGER.warn(String.format("Connection failed. Retrying in %d ms.", delay), e);
+    }
+
+    /**
+     * Refresh the loggers from the configuration service. The logger configurations are requested conditionally using
+     * the validators of the last applied logger configurations and the loggers are not re-configured if the logger
+     * configurations are not modified. The validators are forgotten if the logger configurations cannot be applied, so
+     * the next refresh downloads them again.
+     */
+    public static synchronized void refresh() {
+        if (transport == null) {
+            LOGGER.error("Log manager client is not initialized");
+            return;
+        }
         LOGGER.log(initialized ? Level.INFO : Level.DEBUG,
-                "Refreshing logger configurations from URL: {}", loggingConfigUrl);
-        byte[] authorization = String.format("%s:%s", configServiceUsername,
-                decryptIfEncrypted(configServicePassword)).getBytes(StandardCharsets.UTF_8);
-        while (true) {
-            HttpURLConnection connection = null;
+                "Refreshing logger configurations from URI: {}", LOGGING_CONFIG_URI);
+        try {
+            if (!initialized) {
+                transport.removeValidators(LOGGING_CONFIG_URI);
+            }
+            long start = System.nanoTime();
+            HttpTransport.Response response;
             try {
-                connection = (HttpURLConnection) new URL(loggingConfigUrl).openConnection();
-                connection.setRequestMethod("GET");
-                connection.setRequestProperty("Authorization",
-                        String.format(AUTHORIZATION_PROPERTY, Base64.getEncoder().encodeToString(authorization)));
-                try (InputStream inputStream = connection.getInputStream()) {
-                    LOGGER.log(initialized ? Level.INFO : Level.DEBUG,
-                            "Logger configurations received from URL: {}", loggingConfigUrl);
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    List<String> loggerConfigs = objectMapper.readValue(inputStream,
-                            objectMapper.getTypeFactory().constructCollectionType(List.class, String.class));
-                    configure(loggerConfigs);
-                    return;
-                }
+                response = transport.get(LOGGING_CONFIG_URI, true);
             } catch (IOException e) {
-                LOGGER.warn("Connection failed. Retrying.", e);
-                try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException ex) {
-                    LOGGER.error("Error occurred", e);
-                    return;
-                }
-            } finally {
-                if (connection != null) {
-                    connection.disconnect();
-                }
+                metrics.recordFailure(RefreshMetrics.FETCH);
+                throw e;
+            }
+            metrics.recordStage(RefreshMetrics.FETCH, start);
+            if (response == null) {
+                LOGGER.info("Logger configurations are not modified");
+                return;
             }
+            metrics.recordPayload(response.getBody().length);
+            LOGGER.log(initialized ? Level.INFO : Level.DEBUG,
+                    "Logger configurations received from URI: {}", LOGGING_CONFIG_URI);
+            try {
+                applyLoggerConfigs(response);
+            } catch (IOException | RuntimeException e) {
+                // Forget the validators, so the next refresh downloads the logger configurations again
+                transport.removeValidators(LOGGING_CONFIG_URI);
+                throw e;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Error in refreshing logger configurations from URI: " + LOGGING_CONFIG_URI, e);
         }
     }
 
+    private static void applyLoggerConfigs(HttpTransport.Response response) throws IOException {
+        long start = System.nanoTime();
+        ObjectMapper objectMapper = new ObjectMapper();
+        List<String> loggerConfigs;
+        try {
+            loggerConfigs = objectMapper.readValue(response.getBody(),
+                    objectMapper.getTypeFactory().constructCollectionType(List.class, String.class));
+        } catch (IOException | RuntimeException e) {
+            metrics.recordFailure(RefreshMetrics.PARSE);
+            throw e;
+        }
+        metrics.recordStage(RefreshMetrics.PARSE, start);
+        start = System.nanoTime();
+        try {
+            configure(new ArrayList<>(loggerConfigs));
+        } catch (RuntimeException e) {
+            metrics.recordFailure(RefreshMetrics.LOGGER_RECONFIGURE);
+            throw e;
+        }
+        metrics.recordStage(RefreshMetrics.LOGGER_RECONFIGURE, start);
+        cacheLoggerConfigs(loggerConfigs);
+    }
+
+    /**
+     * Returns the refresh metrics of the log manager client.
+     *
+     * @return the refresh metrics
+     */
+    public static RefreshMetrics getRefreshMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the retry policy used to access the configuration service.
+     *
+     * @return the retry policy
+     */
+    public static RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Apply the last applied logger configurations stored in the "server.config.path" directory.
+     *
+     * @return true if the cached logger configurations are applied
+     */
+    private static synchronized boolean applyCachedLoggerConfigs() {
+        Path cacheFile = getLoggerConfigCacheFile();
+        if (cacheFile == null || !cacheFile.toFile().exists()) {
+            return false;
+        }
+        try {
+            ObjectMapper objectMapper = new ObjectMapper();
+            List<String> loggerConfigs = objectMapper.readValue(cacheFile.toFile(),
+                    objectMapper.getTypeFactory().constructCollectionType(List.class, String.class));
+            configure(loggerConfigs);
+            LOGGER.info("Logger configurations applied from cache: {}", cacheFile);
+            return true;
+        } catch (IOException e) {
+            LOGGER.warn("Error in applying logger configurations from cache " + cacheFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Store the logger configurations received from the configuration service in the "server.config.path" directory.
+     * The file is written to a temporary file and moved in place, so a partially written file is never applied.
+     *
+     * @param loggerConfigs the logger configurations received from the configuration service
+     */
+    private static void cacheLoggerConfigs(List<String> loggerConfigs) {
+        Path cacheFile = getLoggerConfigCacheFile();
+        if (cacheFile == null) {
+            return;
+        }
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(cacheFile.toAbsolutePath().getParent(),
+                    cacheFile.getFileName().toString(), ".tmp");
+            new ObjectMapper().writeValue(tempFile.toFile(), loggerConfigs);
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.debug("Logger configurations stored in cache: {}", cacheFile);
+        } catch (IOException e) {
+            LOGGER.warn("Error in storing logger configurations in cache " + cacheFile, e);
+        } finally {
+            if (tempFile != null) {
+                tempFile.toFile().delete();
+            }
+        }
+    }
+
+    private static Path getLoggerConfigCacheFile() {
+        String configPath = System.getProperty("server.config.path");
+        return configPath != null ? Paths.get(configPath, LOGGER_CONFIG_CACHE_FILE) : null;
+    }
+
     public static void configure(List<String> loggerConfigs) {
         String localLoggingConfig = getLocalLoggingConfig();
         if (localLoggingConfig != null) {
@@ -163,10 +407,7 @@ public class LogManagerClient {
     }
 
     public static String decryptIfEncrypted(String text) {
-        if (text != null && text.startsWith(ENCRYPTED_VALUE_PREFIX)) {
-            return REVERSIBLE_ENCRYPTOR.decrypt(text);
-        }
-        return text;
+        return EncryptionUtil.decryptIfEncrypted(text);
     }
 
 }
@@ -0,0 +1,196 @@
+package com.nextlabs.destiny.logmanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nextlabs.cc.common.metrics.MetricsRegistry;
+import com.nextlabs.cc.common.metrics.RefreshMetrics;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for conditional logger configuration refresh using a local configuration service stub.
+ */
+public class ConditionalRefreshTest {
+
+    private static final String ENTITY_TAG = "\"logger-version-1\"";
+    private static final String LOGGER_CONFIG = "<Configuration status=\"WARN\"><Appenders>"
+            + "<Console name=\"Console\"/></Appenders><Loggers><Root level=\"info\">"
+            + "<AppenderRef ref=\"Console\"/></Root></Loggers></Configuration>";
+    private static final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private static final AtomicInteger requests = new AtomicInteger();
+    private static final AtomicReference<CountDownLatch> responseGate =
+            new AtomicReference<>(new CountDownLatch(0));
+    private static final AtomicReference<byte[]> content = new AtomicReference<>();
+    private static final AtomicReference<String> entityTag = new AtomicReference<>();
+    private static byte[] validContent;
+    private static HttpServer server;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        validContent = new ObjectMapper().writeValueAsBytes(Collections.singletonList(LOGGER_CONFIG));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/config-service/logger-config/get", exchange -> {
+            requests.incrementAndGet();
+            try {
+                responseGate.get().await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (entityTag.get().equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                byte[] responseContent = content.get();
+                exchange.getResponseHeaders().set("ETag", entityTag.get());
+                exchange.sendResponseHeaders(200, responseContent.length);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    outputStream.write(responseContent);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    /**
+     * Initialize the client with a new transport, so the validators and the responses of other tests in the same JVM
+     * are not used.
+     */
+    @Before
+    public void before() {
+        System.clearProperty("server.config.path");
+        notModifiedResponses.set(0);
+        requests.set(0);
+        responseGate.set(new CountDownLatch(0));
+        content.set(validContent);
+        entityTag.set(ENTITY_TAG);
+        LogManagerClient.init(String.format("http://localhost:%d/config-service", server.getAddress().getPort()),
+                "config-client", "password");
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testNotModifiedResponseSkipsReconfigure() {
+        RefreshMetrics metrics = LogManagerClient.getRefreshMetrics();
+        long fetchCount = getStageCount(metrics, RefreshMetrics.FETCH);
+        long reconfigureCount = getStageCount(metrics, RefreshMetrics.LOGGER_RECONFIGURE);
+        long payloadCount = metrics.getPayloadCount();
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        Configuration initialConfiguration = context.getConfiguration();
+        LogManagerClient.refresh();
+        Configuration refreshedConfiguration = context.getConfiguration();
+        assertNotSame(initialConfiguration, refreshedConfiguration);
+
+        LogManagerClient.refresh();
+
+        assertSame(refreshedConfiguration, context.getConfiguration());
+        assertEquals(1, notModifiedResponses.get());
+        assertEquals(fetchCount + 2, getStageCount(metrics, RefreshMetrics.FETCH));
+        assertEquals(reconfigureCount + 1, getStageCount(metrics, RefreshMetrics.LOGGER_RECONFIGURE));
+        assertEquals(payloadCount + 1, metrics.getPayloadCount());
+        assertSame(metrics, MetricsRegistry.getMetrics().get("log-manager"));
+    }
+
+    @Test
+    public void testBackgroundRefreshesAreMerged() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        responseGate.set(gate);
+        LogManagerClient.requestBackgroundRefresh();
+        waitUntil(() -> requests.get() == 1);
+
+        // One refresh is queued while the first is in progress and the others are merged into it
+        for (int i = 0; i < 3; i++) {
+            LogManagerClient.requestBackgroundRefresh();
+        }
+        gate.countDown();
+
+        waitUntil(() -> notModifiedResponses.get() == 1);
+        Thread.sleep(100);
+        assertEquals(2, requests.get());
+        LogManagerClient.close();
+        waitUntil(() -> !isRefresherThreadAlive());
+        assertFalse(isRefresherThreadAlive());
+    }
+
+    @Test
+    public void testCloseUnregistersMetrics() {
+        RefreshMetrics metrics = LogManagerClient.getRefreshMetrics();
+        assertSame(metrics, MetricsRegistry.getMetrics().get("log-manager"));
+        LogManagerClient.refresh();
+
+        LogManagerClient.close();
+
+        assertFalse(MetricsRegistry.getMetrics().containsKey("log-manager"));
+        assertEquals(3, metrics.getGauges().size());
+        assertEquals(Long.valueOf(LogManagerClient.getRetryPolicy().getCallCount()),
+                metrics.getGauges().get("call_count"));
+    }
+
+    @Test
+    public void testInvalidLoggerConfigsAreDownloadedAgain() {
+        RefreshMetrics metrics = LogManagerClient.getRefreshMetrics();
+        long parseFailureCount = getFailureCount(metrics, RefreshMetrics.PARSE);
+        LogManagerClient.refresh();
+        long reconfigureCount = getStageCount(metrics, RefreshMetrics.LOGGER_RECONFIGURE);
+        // The logger configurations are modified with invalid JSON
+        content.set("[\"<Configuration".getBytes(StandardCharsets.UTF_8));
+        entityTag.set("\"logger-version-2\"");
+        LogManagerClient.refresh();
+        assertEquals(parseFailureCount + 1, getFailureCount(metrics, RefreshMetrics.PARSE));
+        content.set(validContent);
+
+        LogManagerClient.refresh();
+
+        assertEquals(0, notModifiedResponses.get());
+        assertEquals(reconfigureCount + 1, getStageCount(metrics, RefreshMetrics.LOGGER_RECONFIGURE));
+    }
+
+    private static boolean isRefresherThreadAlive() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> "logger-config-refresher".equals(thread.getName()));
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static long getFailureCount(RefreshMetrics metrics, String stage) {
+        Long count = metrics.getStageFailures().get(stage);
+        return count != null ? count : 0;
+    }
+
+    private static long getStageCount(RefreshMetrics metrics, String stage) {
+        Long count = metrics.getStageCounts().get(stage);
+        return count != null ? count : 0;
+    }
+
+}
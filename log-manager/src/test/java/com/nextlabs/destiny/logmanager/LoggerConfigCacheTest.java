@@ -0,0 +1,111 @@
+package com.nextlabs.destiny.logmanager;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nextlabs.cc.common.http.HttpTransport;
+import com.nextlabs.cc.common.retry.RetryPolicy;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for applying the last applied logger configurations at startup using a local configuration service stub.
+ */
+public class LoggerConfigCacheTest {
+
+    private static final String LOGGER_CONFIG = "<Configuration status=\"WARN\"><Appenders>"
+            + "<Console name=\"Console\"/></Appenders><Loggers><Root level=\"%s\">"
+            + "<AppenderRef ref=\"Console\"/></Root></Loggers></Configuration>";
+
+    private final CountDownLatch serviceAvailable = new CountDownLatch(1);
+    private HttpServer server;
+    private Path configPath;
+
+    @Before
+    public void before() throws IOException {
+        byte[] content = new ObjectMapper().writeValueAsBytes(
+                Collections.singletonList(String.format(LOGGER_CONFIG, "error")));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/config-service/logger-config/get", exchange -> {
+            try {
+                serviceAvailable.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(content);
+            }
+            exchange.close();
+        });
+        server.start();
+        configPath = Files.createTempDirectory("config");
+        System.setProperty("server.config.path", configPath.toString());
+    }
+
+    @After
+    public void after() throws IOException {
+        serviceAvailable.countDown();
+        server.stop(0);
+        System.clearProperty("server.config.path");
+        try (Stream<Path> files = Files.list(configPath)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(configPath);
+    }
+
+    @Test
+    public void testCachedLoggerConfigsAppliedBeforeRefresh() throws Exception {
+        Path cacheFile = configPath.resolve("logger-config-cache.json");
+        new ObjectMapper().writeValue(cacheFile.toFile(),
+                Collections.singletonList(String.format(LOGGER_CONFIG, "warn")));
+        HttpTransport transport = new HttpTransport(
+                String.format("http://localhost:%d/config-service", server.getAddress().getPort()),
+                "config-client", "password", RetryPolicy.fromProperties(new Properties(), ""),
+                (attempt, delay, e) -> {
+                });
+
+        LogManagerClient.refresh(transport);
+
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        assertEquals(Level.WARN, context.getRootLogger().getLevel());
+
+        serviceAvailable.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((context.getRootLogger().getLevel() != Level.ERROR || !readCache(cacheFile).get(0).contains("error"))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Level.ERROR, context.getRootLogger().getLevel());
+        assertEquals(Collections.singletonList(String.format(LOGGER_CONFIG, "error")), readCache(cacheFile));
+    }
+
+    private static List<String> readCache(Path cacheFile) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        return objectMapper.readValue(cacheFile.toFile(),
+                objectMapper.getTypeFactory().constructCollectionType(List.class, String.class));
+    }
+
+}